@@ -20,6 +20,7 @@ import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
 import org.terasology.input.binds.minimap.DecreaseZoomButton;
 import org.terasology.input.binds.minimap.IncreaseZoomButton;
 import org.terasology.input.binds.minimap.ToggleMinimapButton;
@@ -27,26 +28,43 @@ import org.terasology.logic.characters.CharacterComponent;
 import org.terasology.logic.health.DoDestroyEvent;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.geom.Rect2f;
+import org.terasology.math.geom.Vector3f;
 import org.terasology.math.geom.Vector3i;
+import org.terasology.mazes.MazeInfo;
+import org.terasology.mazes.minimap.BlockColumnSet;
+import org.terasology.mazes.minimap.EditedMazeColumnsComponent;
+import org.terasology.mazes.minimap.ExploredMazeComponent;
 import org.terasology.mazes.minimap.rendering.nui.layers.MinimapHUDElement;
+import org.terasology.registry.CoreRegistry;
 import org.terasology.registry.In;
 //import org.terasology.rendering.nui.ControlWidget;
 import org.terasology.rendering.nui.NUIManager;
 import org.terasology.rendering.nui.databinding.ReadOnlyBinding;
+import org.terasology.world.WorldComponent;
 import org.terasology.world.WorldProvider;
 import org.terasology.world.block.entity.placement.PlaceBlocks;
+import org.terasology.world.chunks.event.OnChunkLoaded;
 import org.terasology.world.generator.WorldGenerator;
 
 /**
  * @author mkienenb
  */
 @RegisterSystem
-public class MinimapSystem extends BaseComponentSystem {
+public class MinimapSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
 
     public static final String HUD_ELEMENT_MAP_ID = "minimap";
 
+    // How many rooms around the player's room count as seen
+    private static final int EXPLORE_RADIUS = 1;
+
     private MinimapHUDElement minimapHUDElement;
 
+    private MazeInfo mazeInfo;
+    // The room the player was last seen in, so that standing still costs nothing
+    private Vector3i lastRoom;
+    // Block columns changed during this tick; handed to the minimap once per tick however many blocks changed
+    private final BlockColumnSet changedColumns = new BlockColumnSet();
+
     @In
     private NUIManager nuiManager;
 
@@ -75,6 +93,93 @@ public class MinimapSystem extends BaseComponentSystem {
         int seaLevel = worldGenerator == null ? 10 : worldGenerator.getWorld().getSeaLevel();
         minimapHUDElement.setHeightRange(seaLevel, seaLevel + 64);
         minimapHUDElement.setWorldProvider(worldProvider);
+        // Only there if the maze is generated in this process; remote clients sample the world instead
+        mazeInfo = CoreRegistry.get(MazeInfo.class);
+        minimapHUDElement.setMazeInfo(mazeInfo);
+    }
+
+    @Override
+    public void postBegin() {
+        // The columns edited in earlier sessions are saved with the world entity, which exists once the world is loaded
+        if (mazeInfo != null) {
+            minimapHUDElement.setEditedColumns(
+                    worldProvider.getWorldEntity().getComponent(EditedMazeColumnsComponent.class));
+        }
+    }
+
+    @Override
+    public void update(float delta) {
+        if (!changedColumns.isEmpty()) {
+            if (mazeInfo != null) {
+                saveEditedColumns();
+            }
+            minimapHUDElement.updateColumns(changedColumns);
+            changedColumns.clear();
+        }
+
+        EntityRef character = localPlayer.getCharacterEntity();
+        LocationComponent location = character.getComponent(LocationComponent.class);
+        if (mazeInfo == null || location == null) {
+            return;
+        }
+        Vector3f position = location.getWorldPosition();
+        int x = Math.round(position.x());
+        int y = Math.round(position.y());
+        int z = Math.round(position.z());
+        if (!mazeInfo.isInsideBoundaries(x, y, z)) {
+            return;
+        }
+        Vector3i room = new Vector3i(mazeInfo.getRoomX(x), mazeInfo.getLevel(y), mazeInfo.getRoomZ(z));
+        if (room.equals(lastRoom)) {
+            return;
+        }
+        lastRoom = room;
+
+        ExploredMazeComponent explored = character.getComponent(ExploredMazeComponent.class);
+        boolean isNew = explored == null;
+        if (isNew) {
+            explored = new ExploredMazeComponent();
+        }
+        explored.setLevelSize(mazeInfo.maze_width, mazeInfo.maze_height);
+        boolean changed = false;
+        for (int roomZ = room.z - EXPLORE_RADIUS; roomZ <= room.z + EXPLORE_RADIUS; roomZ++) {
+            for (int roomX = room.x - EXPLORE_RADIUS; roomX <= room.x + EXPLORE_RADIUS; roomX++) {
+                if (explored.markExplored(room.y, roomX, roomZ)) {
+                    minimapHUDElement.updateExploredRoom(roomX, roomZ);
+                    changed = true;
+                }
+            }
+        }
+        if (isNew) {
+            character.addComponent(explored);
+        } else if (changed) {
+            character.saveComponent(explored);
+        }
+    }
+
+    /**
+     * Adds the changed columns within the maze to those saved with the world.
+     */
+    private void saveEditedColumns() {
+        EntityRef world = worldProvider.getWorldEntity();
+        EditedMazeColumnsComponent existing = world.getComponent(EditedMazeColumnsComponent.class);
+        EditedMazeColumnsComponent edited = existing != null ? existing : new EditedMazeColumnsComponent();
+        boolean[] changed = {false};
+        changedColumns.forEach((x, z) -> {
+            boolean inMaze = x >= mazeInfo.minTileX() && x < mazeInfo.maxTileX()
+                    && z >= mazeInfo.minTileZ() && z < mazeInfo.maxTileZ();
+            if (inMaze && edited.markEdited(x, z)) {
+                changed[0] = true;
+            }
+        });
+        if (!changed[0]) {
+            return;
+        }
+        if (existing == null) {
+            world.addComponent(edited);
+        } else {
+            world.saveComponent(edited);
+        }
     }
 
     @ReceiveEvent(components = {CharacterComponent.class})
@@ -101,15 +206,22 @@ public class MinimapSystem extends BaseComponentSystem {
         }
     }
 
+    @ReceiveEvent(components = {WorldComponent.class})
+    public void onChunkLoaded(OnChunkLoaded event, EntityRef worldEntity) {
+        Vector3i chunk = event.getChunkPos();
+        minimapHUDElement.updateLoadedChunk(chunk.x(), chunk.z());
+    }
+
     @ReceiveEvent
     public void onDestroyBlock(DoDestroyEvent event, EntityRef entity, LocationComponent locationComp) {
-        minimapHUDElement.updateLocation(new Vector3i(locationComp.getWorldPosition()));
+        Vector3f position = locationComp.getWorldPosition();
+        changedColumns.add(Math.round(position.x()), Math.round(position.z()));
     }
 
     @ReceiveEvent
     public void onPlaceBlock(PlaceBlocks event, EntityRef entity) {
         for (Vector3i pos : event.getBlocks().keySet()) {
-            minimapHUDElement.updateLocation(pos);
+            changedColumns.add(pos.x(), pos.z());
         }
     }
 }
@@ -15,8 +15,6 @@
  */
 package org.terasology.mazes;
 
-import org.terasology.math.geom.Vector3i;
-
 /**
  * Created by john on 10/18/15.
  */
@@ -24,9 +22,9 @@ public class AirTile extends MazeTile {
     public AirTile(MazeInfo maze_info_input) {
         super(maze_info_input);
     }
-    public boolean containsRelativePosition(Vector3i position)
+    public boolean containsRelativePosition(int x, int y, int z)
     {
         // This extrudes everything except for the floor between this and the next level.
-        return (position.y() <= maze_info.room_height);
+        return (y <= maze_info.room_height);
     }
 }
@@ -17,7 +17,7 @@ package org.terasology.mazes;
 
 import org.terasology.math.geom.Vector3i;
 
-import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Created by john on 10/18/15.
@@ -25,31 +25,23 @@ import java.util.HashMap;
 public class DownStairs extends RoomTemplate {
     public DownStairs(MazeInfo maze_info_input) {
         super(maze_info_input);
-        // TODO: make it so this code is only executed once and other stairs are copies.
+    }
+    protected void traceStairs(Set<Vector3i> stair_blocks) {
         // Spiral counterclockwise from the lower right hand corner, going up one block per level
-        Vector3i focus = new Vector3i(0,maze_info.room_height + maze_info_input.floor_thickness-1,1);
-        room_blocks.put(new Vector3i(focus), false);
+        Vector3i focus = new Vector3i(0,maze_info.room_height + maze_info.floor_thickness-1,1);
+        stair_blocks.add(new Vector3i(focus));
         Vector3i direction = Vector3i.north();
         while (focus.y() > maze_info.room_height) {
             spiralUp(focus,direction);
-            room_blocks.put(new Vector3i(focus), false);
+            stair_blocks.add(new Vector3i(focus));
         }
     }
-    public boolean containsRelativePosition(Vector3i position)
+    protected boolean isOpen(int x, int y, int z, boolean stair_block)
     {
         // Everything above the floor is air
-        if (position.y() <= maze_info.room_height)
+        if (y <= maze_info.room_height)
             return true;
 
-        // Otherwise, we use a hash map to create and use a stair case block.
-        if (room_blocks.containsKey(position))
-        {
-            return room_blocks.get(position);
-        }
-        else
-        {
-            // Absence from the map indicates an air block
-            return true;
-        }
+        return !stair_block;
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.function.IntFunction;
+
+/**
+ * Data derived from single levels of a maze, computed on first use. Like the floors of {@link MazeInfo}, only the
+ * levels used most recently are kept, and anything else is computed again when needed.
+ * <p>
+ * A LevelCache may be shared between threads, as long as its loader may be.
+ */
+final class LevelCache<T> {
+    private static final int MAX_CACHED_LEVELS = 64;
+
+    private final LoadingCache<Integer, T> cache;
+
+    /**
+     * @param loader computes the data of a level. Callers make sure it is only asked for levels the maze has.
+     */
+    LevelCache(IntFunction<T> loader) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_LEVELS)
+                .build(new CacheLoader<Integer, T>() {
+                    @Override
+                    public T load(Integer level) {
+                        return loader.apply(level);
+                    }
+                });
+    }
+
+    T get(int level) {
+        return cache.getUnchecked(level);
+    }
+}
@@ -1,11 +1,211 @@
 package org.terasology.mazes;
 
 import org.terasology.math.Region3i;
+import org.terasology.math.geom.BaseVector3i;
 import org.terasology.world.generation.Border3D;
-import org.terasology.world.generation.facets.base.BaseBooleanFieldFacet3D;
+import org.terasology.world.generation.facets.base.BaseFacet3D;
+
+import java.util.Arrays;
+
+/**
+ * Holds the {@link MazePalette} material of every block of the region; {@link MazePalette#NONE} leaves the world as
+ * it is. The boolean accessors treat corridor blocks as set, i.e. "carve here".
+ * <p>
+ * Almost every chunk of a world lies outside the maze, so the materials are only allocated once the first block is
+ * set. Until then the facet is empty and costs nothing but the object itself.
+ */
+public class MazeFacet extends BaseFacet3D {
+    /**
+     * How much of the facet is covered by the maze, so that rasterizers can skip or bulk-fill whole chunks.
+     */
+    public enum Coverage {
+        EMPTY,
+        // Every block has the same material
+        FULL,
+        MIXED
+    }
+
+    private static final String[] NO_BLOCKS = new String[MazePalette.SIZE];
+
+    private byte[] data;
+    // Computed on demand and dropped on every write
+    private Coverage coverage;
+    private String[] blockUris = NO_BLOCKS;
 
-public class MazeFacet extends BaseBooleanFieldFacet3D {
     public MazeFacet(Region3i targetRegion, Border3D border) {
         super(targetRegion, border);
     }
+
+    /**
+     * @return the URI of the block every material is built from, by {@link MazePalette} id; null if that material
+     * leaves the world as it is. The array is shared and must not be modified.
+     */
+    public String[] getBlockUris() {
+        return blockUris;
+    }
+
+    /**
+     * Passes the blocks configured for the world on to the rasterizer. The array is shared rather than copied, so
+     * that it only needs to be resolved to blocks once; it must not be modified afterwards.
+     */
+    public void setBlockUris(String[] blockUris) {
+        this.blockUris = blockUris;
+    }
+
+    public boolean get(int x, int y, int z) {
+        return getMaterial(x, y, z) == MazePalette.CORRIDOR;
+    }
+
+    public boolean get(BaseVector3i pos) {
+        return get(pos.x(), pos.y(), pos.z());
+    }
+
+    public boolean getWorld(int x, int y, int z) {
+        return getWorldMaterial(x, y, z) == MazePalette.CORRIDOR;
+    }
+
+    public boolean getWorld(BaseVector3i pos) {
+        return getWorld(pos.x(), pos.y(), pos.z());
+    }
+
+    public void set(int x, int y, int z, boolean value) {
+        setMaterial(x, y, z, value ? MazePalette.CORRIDOR : MazePalette.NONE);
+    }
+
+    public void set(BaseVector3i pos, boolean value) {
+        set(pos.x(), pos.y(), pos.z(), value);
+    }
+
+    public void setWorld(int x, int y, int z, boolean value) {
+        setWorldMaterial(x, y, z, value ? MazePalette.CORRIDOR : MazePalette.NONE);
+    }
+
+    public void setWorld(BaseVector3i pos, boolean value) {
+        setWorld(pos.x(), pos.y(), pos.z(), value);
+    }
+
+    public byte getMaterial(int x, int y, int z) {
+        return data == null ? MazePalette.NONE : data[getRelativeIndex(x, y, z)];
+    }
+
+    public byte getWorldMaterial(int x, int y, int z) {
+        return data == null ? MazePalette.NONE : data[getWorldIndex(x, y, z)];
+    }
+
+    public void setMaterial(int x, int y, int z, byte material) {
+        setRun(getRelativeIndex(x, y, z), getRelativeIndex(x, y, z) + 1, material);
+    }
+
+    public void setWorldMaterial(int x, int y, int z, byte material) {
+        setRun(getWorldIndex(x, y, z), getWorldIndex(x, y, z) + 1, material);
+    }
+
+    /**
+     * Sets a run of blocks along the x axis, from min_x to max_x inclusive, in world coordinates.
+     */
+    public void setWorldRun(int min_x, int max_x, int y, int z, byte material) {
+        if (min_x <= max_x) {
+            setRun(getWorldIndex(min_x, y, z), getWorldIndex(max_x, y, z) + 1, material);
+        }
+    }
+
+    /**
+     * @return the first x >= from_x (relative coordinates) of the row that has a material, or max_x + 1 if there is
+     * none.
+     */
+    public int nextSetX(int from_x, int max_x, int y, int z) {
+        if (data == null) {
+            return max_x + 1;
+        }
+        int index = getRelativeIndex(from_x, y, z);
+        int x = from_x;
+        while (x <= max_x && data[index] == MazePalette.NONE) {
+            x++;
+            index++;
+        }
+        return x;
+    }
+
+    /**
+     * @return the first x > from_x (relative coordinates) of the row whose material differs from the one at from_x,
+     * or max_x + 1 if there is none.
+     */
+    public int nextChangeX(int from_x, int max_x, int y, int z) {
+        if (data == null) {
+            return max_x + 1;
+        }
+        int index = getRelativeIndex(from_x, y, z);
+        byte material = data[index];
+        int x = from_x + 1;
+        index++;
+        while (x <= max_x && data[index] == material) {
+            x++;
+            index++;
+        }
+        return x;
+    }
+
+    /**
+     * Classifies the facet as a whole. The provider calls this once the facet is filled, so the result is cached.
+     */
+    public Coverage getCoverage() {
+        if (coverage == null) {
+            if (isEmpty()) {
+                coverage = Coverage.EMPTY;
+            } else if (isFull()) {
+                coverage = Coverage.FULL;
+            } else {
+                coverage = Coverage.MIXED;
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * @return the material shared by every block, or {@link MazePalette#NONE} if the blocks differ.
+     */
+    public byte getUniformMaterial() {
+        if (data == null) {
+            return MazePalette.NONE;
+        }
+        byte material = data[0];
+        for (byte other : data) {
+            if (other != material) {
+                return MazePalette.NONE;
+            }
+        }
+        return material;
+    }
+
+    /**
+     * @return true if no block of the facet has a material.
+     */
+    public boolean isEmpty() {
+        if (data != null) {
+            for (byte material : data) {
+                if (material != MazePalette.NONE) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every block of the facet has the same material.
+     */
+    public boolean isFull() {
+        return getUniformMaterial() != MazePalette.NONE;
+    }
+
+    private void setRun(int from, int to, byte material) {
+        coverage = null;
+        if (data == null) {
+            if (material == MazePalette.NONE) {
+                return;
+            }
+            data = new byte[getWorldRegion().volume()];
+        }
+        Arrays.fill(data, from, to, material);
+    }
 }
@@ -4,42 +4,60 @@ import org.terasology.customOreGen.PDist;
 import org.terasology.customOreGen.Structure;
 import org.terasology.customOreGen.StructureDefinition;
 import org.terasology.customOreGen.VeinsStructureDefinition;
+import org.terasology.engine.paths.PathManager;
 import org.terasology.entitySystem.Component;
-import org.terasology.math.geom.Vector3i;
+import org.terasology.registry.CoreRegistry;
 import org.terasology.rendering.nui.properties.Range;
+import org.terasology.rendering.nui.properties.TextField;
+import org.terasology.world.WorldProvider;
 import org.terasology.world.generation.ConfigurableFacetProvider;
 import org.terasology.world.generation.FacetProviderPlugin;
 import org.terasology.world.generation.GeneratingRegion;
 import org.terasology.world.generation.Produces;
 import org.terasology.world.generator.plugin.RegisterPlugin;
 
+import java.nio.file.Path;
 import java.util.Collection;
 
 @RegisterPlugin
 @Produces(MazeFacet.class)
 public class MazeFacetProvider implements ConfigurableFacetProvider, FacetProviderPlugin {
     private long seed;
+    private boolean seeded;
+    // Where the layout was looked for; null if there was no save to look in
+    private Path layout_directory;
+    // Whether the layout has been handed to the save of the running game
+    private volatile boolean layout_stored;
     private MazeFacetProviderConfiguration configuration = new MazeFacetProviderConfiguration();
+    // The blocks of the configuration by MazePalette id, shared by all facets until the configuration changes
+    private String[] block_uris = configuration.getBlockUris();
 
     @Override
     public void setSeed(long seed) {
         this.seed = seed;
+        seeded = true;
+        publishLayout();
     }
 
     @Override
     public void process(GeneratingRegion region) {
+        if (!layout_stored) {
+            storeLayout();
+        }
         MazeFacet facet = new MazeFacet(region.getRegion(), region.getBorderForFacet(MazeFacet.class));
-        MazeGenerator maze_generator = new MazeGenerator(new MazeInfo(seed));
-        if (maze_generator.intersectsWithRegion(region.getRegion()))
+        // Levels the background worker has not got to yet are generated here, one at a time as they are needed
+        // Walls only go into the facet if there is a block to build them from; otherwise chunks that merely touch a
+        // wall stay empty
+        boolean build_walls = block_uris[MazePalette.WALL] != null;
+        MazeGenerator maze_generator = new MazeGenerator(MazeLayoutCache.get(seed, getParameters(), layout_directory),
+                build_walls);
+        if (maze_generator.intersectsWithRegion(facet.getWorldRegion()))
         {
-            for (Vector3i position : facet.getWorldRegion())
-            {
-                if (maze_generator.containsWorldPosition(position))
-                {
-                    facet.setWorld(position,true);
-                }
-            }
+            maze_generator.fillFacet(facet);
         }
+        // Classify the chunk now, while we are still on the generation thread
+        facet.getCoverage();
+        facet.setBlockUris(block_uris);
         region.setRegionFacet(MazeFacet.class, facet);
     }
 
@@ -57,6 +75,53 @@ public class MazeFacetProvider implements ConfigurableFacetProvider, FacetProvid
     @Override
     public void setConfiguration(Component configuration) {
         this.configuration = (MazeFacetProviderConfiguration) configuration;
+        block_uris = this.configuration.getBlockUris();
+        // The depth may have changed, and with it the layout
+        if (seeded) {
+            publishLayout();
+        }
+    }
+
+    /**
+     * Shares the layout with the rest of the game, e.g. the minimap, and gets its first levels going while the world
+     * is still loading rather than on the first chunk requests. Its levels are generated lazily, so this is cheap.
+     * <p>
+     * This also happens for world previews, when the current save may belong to another world; a layout stored there
+     * is only read if its seed and parameters match, and nothing is written until {@link #storeLayout}.
+     */
+    private void publishLayout() {
+        Path save_path = PathManager.getInstance().getCurrentSavePath();
+        layout_directory = save_path != null ? save_path.resolve("mazes") : null;
+        MazeLayoutCache.precompute(seed, getParameters(), layout_directory);
+        MazeInfo maze_info = MazeLayoutCache.get(seed, getParameters(), layout_directory);
+        CoreRegistry.put(MazeInfo.class, maze_info);
+        // Spawn rooms are only collected per level once something spawns there
+        CoreRegistry.put(MazeSpawnSampler.class, new MazeSpawnSampler(maze_info));
+        layout_stored = false;
+    }
+
+    /**
+     * Stores the layout with the save of the running game, once its chunks are generated. Previews generate chunks
+     * without a running game, and store nothing.
+     */
+    private void storeLayout() {
+        if (CoreRegistry.get(WorldProvider.class) == null) {
+            return;
+        }
+        synchronized (this) {
+            if (layout_stored) {
+                return;
+            }
+            layout_stored = true;
+        }
+        Path save_path = PathManager.getInstance().getCurrentSavePath();
+        if (save_path != null) {
+            MazeLayoutCache.store(seed, getParameters(), save_path.resolve("mazes"));
+        }
+    }
+
+    private MazeParameters getParameters() {
+        return MazeParameters.DEFAULT.withDepth((int) configuration.mazeDepth);
     }
 
     private static class MazeFacetProviderConfiguration implements Component {
@@ -66,5 +131,31 @@ public class MazeFacetProvider implements ConfigurableFacetProvider, FacetProvid
         public float mazeRadius = 8f;
         @Range(min = 0, max = 10f, increment = 1f, precision = 0, description = "Tunnel Radius")
         public float tunnelRadius = 4f;
+        // Levels are generated on demand, so deep dungeons cost nothing until someone gets there.
+        @Range(min = 2, max = 100f, increment = 1f, precision = 0, description = "Maze Depth")
+        public float mazeDepth = 5f;
+        // The blocks the maze is built from, e.g. "core:stone". Where they are left empty the world is kept as it is,
+        // except that corridors are carved out.
+        @TextField(description = "Corridor Block")
+        public String corridorBlock = "";
+        @TextField(description = "Floor Block")
+        public String floorBlock = "";
+        @TextField(description = "Stair Block")
+        public String stairBlock = "";
+        @TextField(description = "Wall Block")
+        public String wallBlock = "";
+
+        private String[] getBlockUris() {
+            String[] block_uris = new String[MazePalette.SIZE];
+            block_uris[MazePalette.CORRIDOR] = toBlockUri(corridorBlock);
+            block_uris[MazePalette.FLOOR] = toBlockUri(floorBlock);
+            block_uris[MazePalette.STAIR] = toBlockUri(stairBlock);
+            block_uris[MazePalette.WALL] = toBlockUri(wallBlock);
+            return block_uris;
+        }
+
+        private static String toBlockUri(String block) {
+            return block == null || block.trim().isEmpty() ? null : block.trim();
+        }
     }
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import org.terasology.math.geom.ImmutableVector2i;
+import org.terasology.math.geom.Vector3i;
+
+import java.util.Arrays;
+
+/**
+ * Spatial queries over the features of every level of a maze: its stairs, the centers of the rooms it was generated
+ * from, and its open rooms (rooms and the corridors between them).
+ * <p>
+ * Positions are rooms of a level, identified by their index x + z * width like in {@link MazeNavigation}, or world
+ * positions, which are mapped to rooms through {@link MazeInfo#getRoomID}. Distances are straight line distances in
+ * rooms. For every level and feature the rooms are bucketed into a uniform grid of {@link #BUCKET_SIZE} by
+ * {@link #BUCKET_SIZE} rooms on first use and cached; nearest searches visit the buckets in rings around the query and
+ * stop as soon as no further ring can hold anything closer, radius searches only visit the buckets the radius covers.
+ * <p>
+ * A MazeFeatureIndex may be shared between threads.
+ */
+public final class MazeFeatureIndex {
+    public static final int NONE = -1;
+
+    public enum Feature {
+        // The up and down stairs; in the shaft, the through stairs
+        STAIRS,
+        // The center of every room the level was generated from; the shaft is a single room
+        ROOM_CENTER,
+        // Every open room, see MazeFloor.isOpen
+        OPEN_CELL
+    }
+
+    public interface RoomConsumer {
+        void accept(int room_index);
+    }
+
+    // The width and height of a bucket, in rooms
+    static final int BUCKET_SIZE = 8;
+
+    private final MazeInfo maze_info;
+    private final int width;
+    private final int height;
+    private final int buckets_x;
+    private final int buckets_z;
+
+    // One grid per feature, by level. Every level of the shaft looks the same, so they share level 0.
+    private final LevelCache<Grid[]> grids = new LevelCache<>(this::buildGrids);
+
+    public MazeFeatureIndex(MazeInfo maze_info) {
+        this.maze_info = maze_info;
+        this.width = maze_info.maze_width;
+        this.height = maze_info.maze_height;
+        this.buckets_x = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        this.buckets_z = (height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+    }
+
+    /**
+     * @return the room index of the feature closest to the given room of the level, or {@link #NONE} if the level
+     * has none. Of equally close features, the one with the lowest room index wins.
+     */
+    public int findNearest(Feature feature, int level, int x, int z) {
+        return getGrid(feature, level).findNearest(x, z);
+    }
+
+    /**
+     * @return the room ID (see {@link MazeInfo#getRoomID}) of the feature closest to the given world position on its
+     * level, or null if the position is outside the levels of the maze or its level has no such feature.
+     */
+    public Vector3i findNearest(Feature feature, Vector3i world_position) {
+        Vector3i room_id = maze_info.getRoomID(world_position);
+        if (room_id == null || maze_info.getFloor(room_id.y()) == null) {
+            return null;
+        }
+        int room_index = findNearest(feature, room_id.y(), room_id.x(), room_id.z());
+        if (room_index == NONE) {
+            return null;
+        }
+        return new Vector3i(room_index % width, room_id.y(), room_index / width);
+    }
+
+    /**
+     * Hands the room index of every feature within the given distance of the given room to the consumer, bucket by
+     * bucket.
+     *
+     * @return the number of features found
+     */
+    public int findWithin(Feature feature, int level, int x, int z, float radius, RoomConsumer consumer) {
+        return getGrid(feature, level).findWithin(x, z, radius, consumer);
+    }
+
+    /**
+     * Like {@link #findWithin(Feature, int, int, int, float, RoomConsumer)}, around the room of a world position.
+     *
+     * @return the number of features found, 0 if the position is outside the levels of the maze
+     */
+    public int findWithin(Feature feature, Vector3i world_position, float radius, RoomConsumer consumer) {
+        Vector3i room_id = maze_info.getRoomID(world_position);
+        if (room_id == null || maze_info.getFloor(room_id.y()) == null) {
+            return 0;
+        }
+        return findWithin(feature, room_id.y(), room_id.x(), room_id.z(), radius, consumer);
+    }
+
+    private Grid getGrid(Feature feature, int level) {
+        if (maze_info.getFloor(level) == null) {
+            throw new IllegalArgumentException("The maze has no level " + level);
+        }
+        return grids.get(Math.max(level, 0))[feature.ordinal()];
+    }
+
+    private Grid[] buildGrids(int level) {
+        MazeFloor floor = maze_info.getFloor(level);
+        Grid[] level_grids = new Grid[Feature.values().length];
+
+        ImmutableVector2i up = floor.getUpStairs();
+        ImmutableVector2i down = floor.getDownStairs();
+        level_grids[Feature.STAIRS.ordinal()] =
+                new Grid(new int[] {up.x() + up.y() * width, down.x() + down.y() * width});
+
+        int[] centers;
+        if (level == 0) {
+            centers = new int[] {up.x() + up.y() * width};
+        } else {
+            int[][] rooms = maze_info.getRoomPlan(level);
+            centers = new int[rooms.length];
+            for (int room = 0; room < rooms.length; room++) {
+                centers[room] = rooms[room][0] + rooms[room][1] * width;
+            }
+        }
+        level_grids[Feature.ROOM_CENTER.ordinal()] = new Grid(centers);
+
+        int open_count = 0;
+        int[] open = new int[width * height];
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                if (floor.isOpen(x, z)) {
+                    open[open_count++] = x + z * width;
+                }
+            }
+        }
+        level_grids[Feature.OPEN_CELL.ordinal()] = new Grid(Arrays.copyOf(open, open_count));
+        return level_grids;
+    }
+
+    /**
+     * The rooms holding one feature of one level, sorted by bucket: the rooms of bucket b are
+     * rooms[bucket_starts[b]] up to rooms[bucket_starts[b + 1]], in increasing order.
+     */
+    private final class Grid {
+        private final int[] bucket_starts;
+        private final int[] rooms;
+
+        /**
+         * @param features room indices; duplicates are dropped
+         */
+        private Grid(int[] features) {
+            boolean[] present = new boolean[width * height];
+            for (int room : features) {
+                present[room] = true;
+            }
+            bucket_starts = new int[buckets_x * buckets_z + 1];
+            int count = 0;
+            for (int room = 0; room < present.length; room++) {
+                if (present[room]) {
+                    bucket_starts[getBucket(room) + 1]++;
+                    count++;
+                }
+            }
+            for (int bucket = 0; bucket < buckets_x * buckets_z; bucket++) {
+                bucket_starts[bucket + 1] += bucket_starts[bucket];
+            }
+            rooms = new int[count];
+            int[] next = Arrays.copyOf(bucket_starts, buckets_x * buckets_z);
+            for (int room = 0; room < present.length; room++) {
+                if (present[room]) {
+                    rooms[next[getBucket(room)]++] = room;
+                }
+            }
+        }
+
+        private int getBucket(int room) {
+            return (room % width) / BUCKET_SIZE + (room / width) / BUCKET_SIZE * buckets_x;
+        }
+
+        private int findNearest(int x, int z) {
+            if (rooms.length == 0) {
+                return NONE;
+            }
+            // Queries outside the level start from the nearest bucket; the bound below still holds for them
+            int center_x = clamp(Math.floorDiv(x, BUCKET_SIZE), buckets_x);
+            int center_z = clamp(Math.floorDiv(z, BUCKET_SIZE), buckets_z);
+            int max_ring = Math.max(Math.max(center_x, buckets_x - 1 - center_x),
+                    Math.max(center_z, buckets_z - 1 - center_z));
+            int best = NONE;
+            long best_distance = Long.MAX_VALUE;
+            for (int ring = 0; ring <= max_ring; ring++) {
+                for (int bucket_z = center_z - ring; bucket_z <= center_z + ring; bucket_z++) {
+                    if (bucket_z < 0 || bucket_z >= buckets_z) {
+                        continue;
+                    }
+                    boolean edge_row = bucket_z == center_z - ring || bucket_z == center_z + ring;
+                    // Inner rows of a ring only have their two ends in it
+                    int step = edge_row ? 1 : Math.max(2 * ring, 1);
+                    for (int bucket_x = center_x - ring; bucket_x <= center_x + ring; bucket_x += step) {
+                        if (bucket_x < 0 || bucket_x >= buckets_x) {
+                            continue;
+                        }
+                        int bucket = bucket_x + bucket_z * buckets_x;
+                        for (int i = bucket_starts[bucket]; i < bucket_starts[bucket + 1]; i++) {
+                            int room = rooms[i];
+                            long distance = squaredDistance(room, x, z);
+                            if (distance < best_distance || (distance == best_distance && room < best)) {
+                                best = room;
+                                best_distance = distance;
+                            }
+                        }
+                    }
+                }
+                // Anything outside this ring is at least ring * BUCKET_SIZE + 1 rooms away along x or z
+                long bound = (long) ring * BUCKET_SIZE + 1;
+                if (best_distance < bound * bound) {
+                    break;
+                }
+            }
+            return best;
+        }
+
+        private int findWithin(int x, int z, float radius, RoomConsumer consumer) {
+            if (radius < 0) {
+                return 0;
+            }
+            int reach = (int) Math.floor(radius);
+            float squared_radius = radius * radius;
+            int min_bucket_x = clamp(Math.floorDiv(x - reach, BUCKET_SIZE), buckets_x);
+            int max_bucket_x = clamp(Math.floorDiv(x + reach, BUCKET_SIZE), buckets_x);
+            int min_bucket_z = clamp(Math.floorDiv(z - reach, BUCKET_SIZE), buckets_z);
+            int max_bucket_z = clamp(Math.floorDiv(z + reach, BUCKET_SIZE), buckets_z);
+            int found = 0;
+            for (int bucket_z = min_bucket_z; bucket_z <= max_bucket_z; bucket_z++) {
+                for (int bucket_x = min_bucket_x; bucket_x <= max_bucket_x; bucket_x++) {
+                    int bucket = bucket_x + bucket_z * buckets_x;
+                    for (int i = bucket_starts[bucket]; i < bucket_starts[bucket + 1]; i++) {
+                        if (squaredDistance(rooms[i], x, z) <= squared_radius) {
+                            consumer.accept(rooms[i]);
+                            found++;
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+
+        private long squaredDistance(int room, int x, int z) {
+            long dx = room % width - x;
+            long dz = room / width - z;
+            return dx * dx + dz * dz;
+        }
+
+        private int clamp(int bucket, int bucket_count) {
+            return Math.max(0, Math.min(bucket, bucket_count - 1));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import org.terasology.math.geom.ImmutableVector2i;
+
+/**
+ * One dungeon level, stored as a dense grid with one tile code (see {@link MazeTile}) per room.
+ * <p>
+ * Floors are only written while the owning {@link MazeInfo} is generated and are read-only afterwards.
+ */
+public final class MazeFloor {
+    private final int width;
+    private final int height;
+    private final byte[] tiles;
+    private ImmutableVector2i up_stairs;
+    private ImmutableVector2i down_stairs;
+    // Summed-area tables of the open rooms and of all maze rooms (open rooms and walls): entry (x, z) counts them in
+    // [0, x) x [0, z).
+    private int[] open_sums;
+    private int[] occupied_sums;
+
+    MazeFloor(int width, int height) {
+        this(width, height, new byte[width * height]);
+    }
+
+    /**
+     * Wraps previously stored tile codes, row by row. Call {@link #finish()} before handing the floor out.
+     */
+    MazeFloor(int width, int height, byte[] tiles) {
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean contains(int x, int z) {
+        return x >= 0 && z >= 0 && x < width && z < height;
+    }
+
+    /**
+     * @return the tile code at the given room coordinates, {@link MazeTile#SOLID} outside of the floor.
+     */
+    public byte getTileCode(int x, int z) {
+        if (!contains(x, z)) {
+            return MazeTile.SOLID;
+        }
+        return tiles[x + z * width];
+    }
+
+    public boolean isOpen(int x, int z) {
+        return MazeTile.isOpen(getTileCode(x, z));
+    }
+
+    /**
+     * Counts the open rooms in the given rectangle of room coordinates (inclusive, clipped to the floor) in O(1).
+     */
+    public int countOpen(int min_x, int min_z, int max_x, int max_z) {
+        return count(open_sums, min_x, min_z, max_x, max_z);
+    }
+
+    /**
+     * Like {@link #countOpen}, counting the walls around the open rooms as well.
+     */
+    public int countOccupied(int min_x, int min_z, int max_x, int max_z) {
+        return count(occupied_sums, min_x, min_z, max_x, max_z);
+    }
+
+    private int count(int[] sums, int min_x, int min_z, int max_x, int max_z) {
+        min_x = Math.max(min_x, 0);
+        min_z = Math.max(min_z, 0);
+        max_x = Math.min(max_x, width - 1);
+        max_z = Math.min(max_z, height - 1);
+        if (min_x > max_x || min_z > max_z) {
+            return 0;
+        }
+        int stride = width + 1;
+        return sums[(max_x + 1) + (max_z + 1) * stride] - sums[min_x + (max_z + 1) * stride]
+                - sums[(max_x + 1) + min_z * stride] + sums[min_x + min_z * stride];
+    }
+
+    /**
+     * @return the room holding the staircase up to the previous level.
+     */
+    public ImmutableVector2i getUpStairs() {
+        return up_stairs;
+    }
+
+    /**
+     * @return the room holding the staircase down to the next level.
+     */
+    public ImmutableVector2i getDownStairs() {
+        return down_stairs;
+    }
+
+    void setStairs(int up_x, int up_z, int down_x, int down_z) {
+        up_stairs = new ImmutableVector2i(up_x, up_z);
+        down_stairs = new ImmutableVector2i(down_x, down_z);
+    }
+
+    void setTileCode(int x, int z, byte code) {
+        // Rooms near the edge may spill over; those rooms could never be reached anyway.
+        if (contains(x, z)) {
+            tiles[x + z * width] = code;
+        }
+    }
+
+    /**
+     * Surrounds the open rooms with walls and builds the occupancy indices. Called once the floor has been generated.
+     */
+    void finish() {
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                if (tiles[x + z * width] == MazeTile.SOLID && hasOpenNeighbour(x, z)) {
+                    tiles[x + z * width] = MazeTile.WALL;
+                }
+            }
+        }
+        int stride = width + 1;
+        open_sums = new int[stride * (height + 1)];
+        occupied_sums = new int[stride * (height + 1)];
+        for (int z = 0; z < height; z++) {
+            int open_row_sum = 0;
+            int occupied_row_sum = 0;
+            for (int x = 0; x < width; x++) {
+                byte code = tiles[x + z * width];
+                if (MazeTile.isOpen(code)) {
+                    open_row_sum++;
+                }
+                if (code != MazeTile.SOLID) {
+                    occupied_row_sum++;
+                }
+                open_sums[(x + 1) + (z + 1) * stride] = open_sums[(x + 1) + z * stride] + open_row_sum;
+                occupied_sums[(x + 1) + (z + 1) * stride] = occupied_sums[(x + 1) + z * stride] + occupied_row_sum;
+            }
+        }
+    }
+
+    private boolean hasOpenNeighbour(int x, int z) {
+        // Diagonals count too, so that corners are closed off
+        for (int neighbour_z = z - 1; neighbour_z <= z + 1; neighbour_z++) {
+            for (int neighbour_x = x - 1; neighbour_x <= x + 1; neighbour_x++) {
+                if (isOpen(neighbour_x, neighbour_z)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Digs out the given room, leaving anything that is already open (e.g. stairs) as it is.
+     */
+    void dig(int x, int z) {
+        if (getTileCode(x, z) == MazeTile.SOLID) {
+            setTileCode(x, z, MazeTile.AIR);
+        }
+    }
+}
@@ -29,35 +29,121 @@ import org.terasology.math.geom.Vector3i;
  */
 public class MazeGenerator {
     public MazeGenerator(MazeInfo maze_info) {
+        this(maze_info, false);
+    }
+
+    /**
+     * @param build_walls whether the walls around open rooms end up in the facet. Only worth it if the rasterizer has
+     * a block for {@link MazePalette#WALL}; otherwise chunks that merely touch a wall are rejected up front.
+     */
+    public MazeGenerator(MazeInfo maze_info, boolean build_walls) {
         m_maze_info = maze_info;
+        m_build_walls = build_walls;
     }
     public boolean containsWorldPosition(Vector3i position)
     {
-        Vector3i room_id = m_maze_info.getRoomID(position);
-        Vector3i relative_position = m_maze_info.getPositionInRoom(position);
-        return (room_id != null &&
-                m_maze_info.maze_map.containsKey(room_id) &&
-                m_maze_info.maze_map.get(room_id).containsRelativePosition(relative_position));
+        return containsWorldPosition(position.x(), position.y(), position.z());
+    }
+    public boolean containsWorldPosition(int x, int y, int z)
+    {
+        if (!m_maze_info.isInsideBoundaries(x, y, z))
+        {
+            return false;
+        }
+        MazeTile tile = m_maze_info.getTile(m_maze_info.getRoomX(x), m_maze_info.getLevel(y), m_maze_info.getRoomZ(z));
+        return tile.containsRelativePosition(m_maze_info.getRelativeX(x), m_maze_info.getRelativeY(y),
+                m_maze_info.getRelativeZ(z));
     }
     public boolean intersectsWithRegion(Region3i region) {
-        // Catch the tunnel leading down
-        if (
-                region.minX() <= m_maze_info.entrance.getX() + m_maze_info.room_diameter &&
-                region.maxX() >= m_maze_info.entrance.getX() &&
-                region.minZ() <= m_maze_info.entrance.getZ() + m_maze_info.room_diameter &&
-                region.maxZ() >= m_maze_info.entrance.getZ()
-                )
+        return m_maze_info.intersectsMaze(region, m_build_walls);
+    }
+
+    /**
+     * Writes the maze materials into the facet. Rather than testing every position of the facet, this visits only the
+     * rooms of the maze overlapping it and stamps their templates, so the cost depends on the volume of the maze
+     * instead of the region size.
+     */
+    public void fillFacet(MazeFacet facet) {
+        Region3i region = facet.getWorldRegion();
+        fillBox(facet, region.intersect(m_maze_info.getShaftBounds()));
+        fillBox(facet, region.intersect(m_maze_info.getBodyBounds()));
+    }
+    private void fillBox(MazeFacet facet, Region3i box) {
+        if (box.isEmpty())
+        {
+            return;
+        }
+        // Levels count downwards, so walk from the top of the box and handle one level's slice of it at a time
+        int max_y = box.maxY();
+        while (max_y >= box.minY())
+        {
+            int level = m_maze_info.getLevel(max_y);
+            int min_y = max_y;
+            while (min_y > box.minY() && m_maze_info.getLevel(min_y - 1) == level)
+            {
+                min_y--;
+            }
+            MazeFloor floor = m_maze_info.getFloor(level);
+            if (floor != null)
+            {
+                fillLevel(facet, box, floor, min_y, max_y);
+            }
+            max_y = min_y - 1;
+        }
+    }
+    private void fillLevel(MazeFacet facet, Region3i box, MazeFloor floor, int min_y, int max_y) {
+        int min_room_x = m_maze_info.getRoomX(box.minX());
+        int max_room_x = m_maze_info.getRoomX(box.maxX());
+        int min_room_z = m_maze_info.getRoomZ(box.minZ());
+        int max_room_z = m_maze_info.getRoomZ(box.maxZ());
+        int rooms = m_build_walls
+                ? floor.countOccupied(min_room_x, min_room_z, max_room_x, max_room_z)
+                : floor.countOpen(min_room_x, min_room_z, max_room_x, max_room_z);
+        if (rooms == 0)
+        {
+            return;
+        }
+        int diameter = m_maze_info.room_diameter;
+        for (int room_z = min_room_z; room_z <= max_room_z; room_z++)
         {
-            return true;
+            int origin_z = m_maze_info.entrance.z() + room_z * diameter;
+            int start_z = Math.max(origin_z, box.minZ());
+            int end_z = Math.min(origin_z + diameter - 1, box.maxZ());
+            for (int room_x = min_room_x; room_x <= max_room_x; room_x++)
+            {
+                byte code = floor.getTileCode(room_x, room_z);
+                if (code == MazeTile.SOLID || (code == MazeTile.WALL && !m_build_walls))
+                {
+                    continue;
+                }
+                MazeTile tile = m_maze_info.getTileType(code);
+                int origin_x = m_maze_info.entrance.x() + room_x * diameter;
+                int start_x = Math.max(origin_x, box.minX());
+                int end_x = Math.min(origin_x + diameter - 1, box.maxX());
+                for (int y = min_y; y <= max_y; y++)
+                {
+                    int relative_y = m_maze_info.getRelativeY(y);
+                    for (int z = start_z; z <= end_z; z++)
+                    {
+                        // Write blocks of the same material as one run
+                        int run_start = start_x;
+                        byte run_material = tile.getMaterial(start_x - origin_x, relative_y, z - origin_z);
+                        for (int x = start_x + 1; x <= end_x; x++)
+                        {
+                            byte material = tile.getMaterial(x - origin_x, relative_y, z - origin_z);
+                            if (material != run_material)
+                            {
+                                facet.setWorldRun(run_start, x - 1, y, z, run_material);
+                                run_start = x;
+                                run_material = material;
+                            }
+                        }
+                        facet.setWorldRun(run_start, end_x, y, z, run_material);
+                    }
+                }
+            }
         }
-        // Main dungeon body
-        return (region.maxX() > m_maze_info.minTileX()&&
-                region.maxY() > m_maze_info.minTileY() &&
-                region.maxZ() > m_maze_info.minTileZ() &&
-                region.minX() < m_maze_info.maxTileX() &&
-                region.minY() < m_maze_info.maxTileY() &&
-                region.minZ() < m_maze_info.maxTileZ()
-        );
     }
     private MazeInfo m_maze_info;
+    private boolean m_build_walls;
 }
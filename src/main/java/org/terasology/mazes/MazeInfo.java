@@ -15,18 +15,21 @@
  */
 package org.terasology.mazes;
 
-import org.terasology.math.geom.Vector2i;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.terasology.math.Region3i;
+import org.terasology.math.geom.ImmutableVector3i;
 import org.terasology.math.geom.Vector3i;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 /**
  * Created by john on 10/17/15.
  */
 public class MazeInfo {
-    private void generateRoom(Vector3i room_center, int generate_width, int generate_height) {
+    private void generateRoom(MazeFloor floor, Vector3i room_center, int generate_width, int generate_height) {
         for (int nX = room_center.x() - generate_width; nX < room_center.x() + generate_width; nX++)
         {
             for (int nZ = room_center.z() - generate_height; nZ < room_center.z() + generate_height; nZ++)
@@ -35,16 +38,13 @@ public class MazeInfo {
                     nX = 0;
                 if (nZ < 0)
                     nZ = 0;
-                Vector3i focus_tile = new Vector3i(nX, room_center.y(), nZ);
-                if (!maze_map.containsKey(focus_tile))
-                    maze_map.put(new Vector3i(nX,room_center.y(),nZ),new AirTile(this));
+                floor.dig(nX, nZ);
             }
         }
     }
-    void tunnelBetween(Vector3i first, Vector3i second)
+    private void tunnelBetween(MazeFloor floor, Vector3i first, Vector3i second, SplittableRandom random_generator)
     {
         Vector3i focus = new Vector3i(first);
-        Random random_generator = new Random(seed);
         // Tunnel randomly in the direction of the second room
         while (focus.distance(second) > 2)
         {
@@ -69,96 +69,210 @@ public class MazeInfo {
                 }
             }
             // Dig out a room
-            if (!maze_map.containsKey(focus))
-                maze_map.put(new Vector3i(focus),new AirTile(this));
+            floor.dig(focus.x(), focus.z());
         }
     }
 
     public MazeInfo(long input_seed) {
+        this(input_seed, MazeParameters.DEFAULT);
+    }
+
+    /**
+     * Sets up the layout. Levels are only generated when they are first asked for (see {@link #getFloor}); each one is
+     * derived from the seed and its level number alone, so evicted levels come back identical.
+     * All fields are final and floors are never modified once generated, so a MazeInfo may be shared between threads
+     * (see {@link MazeLayoutCache}).
+     */
+    public MazeInfo(long input_seed, MazeParameters parameters) {
+        this(input_seed, parameters, null);
+    }
+
+    /**
+     * Sets up a layout whose levels are read from the given file rather than generated (see {@link MazeLayoutFile}).
+     */
+    MazeInfo(long input_seed, MazeParameters parameters, MazeLayoutFile stored) {
         seed = input_seed;
-        maze_map = new HashMap<>();
-        Random random_generator = new Random(seed);
+        this.stored = stored;
+        room_diameter = parameters.room_diameter;
+        room_height = parameters.room_height;
+        floor_thickness = parameters.floor_thickness;
+        maze_width = parameters.maze_width;
+        maze_height = parameters.maze_height;
+        maze_depth = parameters.maze_depth;
+        entrance = parameters.entrance;
+        tile_types = new MazeTile[MazeTile.TILE_TYPE_COUNT];
+        tile_types[MazeTile.SOLID] = new SolidTile(this);
+        tile_types[MazeTile.AIR] = new AirTile(this);
+        tile_types[MazeTile.UP_STAIRS] = new UpStairs(this);
+        tile_types[MazeTile.DOWN_STAIRS] = new DownStairs(this);
+        tile_types[MazeTile.THROUGH_STAIRS] = new ThroughStairs(this);
+        tile_types[MazeTile.WALL] = new WallTile(this);
 
-        // Generate a staircase down as far as possible.
-        for (int nFloor = 0; nFloor > -20; nFloor--)
-        {
-            //if (nFloor == -3) {
-            if (true) {
-                maze_map.put(new Vector3i(0, nFloor, 0), new ThroughStairs(this, new Vector3i(0, nFloor, 0)));
+        int room_levels = room_height + floor_thickness;
+        shaft_bounds = Region3i.createFromMinMax(
+                new Vector3i(entrance.x(), minTileY() + 1, entrance.z()),
+                new Vector3i(entrance.x() + room_diameter - 1, entrance.y() + SHAFT_HEIGHT * room_levels - 1,
+                        entrance.z() + room_diameter - 1));
+        body_bounds = Region3i.createFromMinMax(
+                new Vector3i(minTileX() + 1, minTileY() + 1, minTileZ() + 1),
+                new Vector3i(maxTileX() - 1, maxTileY() - 1, maxTileZ() - 1));
+
+        // Generate a staircase down as far as possible. Every level of the shaft looks the same, so they share a floor.
+        shaft = new MazeFloor(maze_width, maze_height);
+        shaft.setTileCode(0, 0, MazeTile.THROUGH_STAIRS);
+        shaft.setStairs(0, 0, 0, 0);
+        shaft.finish();
+    }
+
+    /**
+     * @return the root random stream of a level. Rooms and tunnels split their own streams off it, in a fixed order.
+     */
+    private SplittableRandom getFloorRandom(int level) {
+        return new SplittableRandom(deriveSeed(seed, level));
+    }
+
+    /**
+     * Draws the rooms of a level, as {x, z, half width, half height}.
+     * The first room holds the up staircase; its center is left for the caller to fill in.
+     */
+    private int[][] planRooms(SplittableRandom floor_random) {
+        // Generate 5 random vectors that will serve as "room centers" per floor.
+        int nRoomCount = 5 + floor_random.nextInt(3);
+        int[][] rooms = new int[nRoomCount][];
+        for (int nRoom = 0; nRoom < nRoomCount; nRoom++) {
+            SplittableRandom random_generator = floor_random.split();
+            int room_x = 0;
+            int room_z = 0;
+            if (nRoom > 0) {
+                // Make a random room
+                room_x = random_generator.nextInt(maze_width);
+                room_z = random_generator.nextInt(maze_height);
             }
-            else
+            int generate_width = 2 + random_generator.nextInt(3);
+            int generate_height = 2 + random_generator.nextInt(3);
+            rooms[nRoom] = new int[] {room_x, room_z, generate_width, generate_height};
+        }
+        return rooms;
+    }
+
+    /**
+     * Moves the first room of a level's plan under the down stairs of the level above.
+     */
+    private void placeUpStairs(int[][] rooms, int level) {
+        if (level > 1) {
+            // Continue where the staircase of the level above ends. Only its plan is needed, not the level itself.
+            int[][] rooms_above = planRooms(getFloorRandom(level - 1));
+            rooms[0][0] = rooms_above[rooms_above.length - 1][0];
+            rooms[0][1] = rooms_above[rooms_above.length - 1][1];
+        }
+        // Otherwise this is the first floor, so our first room is at 0,0,0
+    }
+
+    /**
+     * @return the rooms of a level of the dungeon proper as they were generated, as {x, z, half width, half height}.
+     * The first one holds the up stairs and the last one the down stairs; tunnels connect each one to the next.
+     */
+    int[][] getRoomPlan(int level) {
+        int[][] rooms = planRooms(getFloorRandom(level));
+        placeUpStairs(rooms, level);
+        return rooms;
+    }
+
+    private MazeFloor generateFloor(int level) {
+        MazeFloor floor = new MazeFloor(maze_width, maze_height);
+        SplittableRandom floor_random = getFloorRandom(level);
+        int[][] rooms = planRooms(floor_random);
+        placeUpStairs(rooms, level);
+        floor.setTileCode(rooms[0][0], rooms[0][1], MazeTile.UP_STAIRS);
+
+        Vector3i vecLastRoomCenter = null;
+        Vector3i room_center = null;
+        for (int[] room : rooms) {
+            room_center = new Vector3i(room[0], level, room[1]);
+            generateRoom(floor,room_center,room[2],room[3]);
+            if (vecLastRoomCenter != null)
             {
-                maze_map.put(new Vector3i(0,nFloor,0),new AirTile(this));
+                // Connect sequentially created rooms
+                tunnelBetween(floor,vecLastRoomCenter,room_center,floor_random.split());
             }
+            vecLastRoomCenter = room_center;
         }
+        floor.setTileCode(room_center.x(), room_center.z(), MazeTile.DOWN_STAIRS);
+        floor.setStairs(rooms[0][0], rooms[0][1], room_center.x(), room_center.z());
+        floor.finish();
+        return floor;
+    }
 
-        // Generate 5 random vectors that will serve as "room centers" per floor.
-        int nRoomCount = 5 + random_generator.nextInt(3);
-        Vector3i vectorLastFloorStairs = null;
-        for (int nFloor = 1; nFloor < maze_depth; nFloor++) {
-            Vector3i vecLastRoomCenter = null;
-            Vector3i room_center = null;
-            for (int nRoom = 0; nRoom < nRoomCount; nRoom++) {
-                if (nRoom == 0) {
-                    if (vectorLastFloorStairs == null) {
-                        // The first floor, so our first room is at 0,0,0
-                        room_center = new Vector3i(0, nFloor, 0);
-                    }
-                    else
-                    {
-                        room_center = new Vector3i(vectorLastFloorStairs.x(),nFloor,vectorLastFloorStairs.z());
+    /**
+     * Generates the given levels on the common fork-join pool. Since every level only depends on its own random
+     * streams, the result is identical to generating them one after another.
+     */
+    public void generateFloors(int first_level, int last_level) {
+        IntStream.rangeClosed(Math.max(first_level, 1), Math.min(last_level, maze_depth - 1))
+                .parallel()
+                .forEach(this::getFloor);
+    }
+
+    /**
+     * Mixes a seed with a stream number (SplitMix64), so that neighbouring streams are unrelated.
+     */
+    static long deriveSeed(long seed, long stream) {
+        long z = seed + (stream + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // The number of levels of the entrance shaft, counted upwards from level 0.
+    public static final int SHAFT_HEIGHT = 20;
+
+    // Recently used levels of the dungeon proper. Anything else is regenerated when it is needed again.
+    private static final int MAX_CACHED_FLOORS = 64;
+
+    private final MazeFloor shaft;
+    private final Region3i shaft_bounds;
+    private final Region3i body_bounds;
+    // The file this layout was loaded from, if any
+    private final MazeLayoutFile stored;
+    private final LoadingCache<Integer, MazeFloor> floors = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_FLOORS)
+            .build(new CacheLoader<Integer, MazeFloor>() {
+                @Override
+                public MazeFloor load(Integer level) {
+                    if (stored != null && level <= stored.getLevelCount()) {
+                        return stored.readFloor(level);
                     }
-                    maze_map.put(new Vector3i(room_center),new UpStairs(this));
-                }
-                else
-                {
-                    // Make a random room
-                    room_center = new Vector3i(random_generator.nextInt(maze_width), nFloor, random_generator.nextInt(maze_height));
-                }
-                int generate_width = 2 + random_generator.nextInt(3);
-                int generate_height = 2 + random_generator.nextInt(3);
-                generateRoom(room_center,generate_width,generate_height);
-                if (vecLastRoomCenter == null)
-                {
-                    vecLastRoomCenter = new Vector3i(room_center);
+                    return generateFloor(level);
                 }
-                else
-                {
-                    // Connect sequentially created rooms
-                    tunnelBetween(vecLastRoomCenter,room_center);
-                    vecLastRoomCenter = room_center;
-                }
-            }
-            vectorLastFloorStairs = new Vector3i(room_center);
-            maze_map.put(new Vector3i(room_center),new DownStairs(this));
-        }
-    }
+            });
 
-    public HashMap<Vector3i,MazeTile> maze_map;
+    // Flyweight tile behaviour, indexed by tile code.
+    private final MazeTile[] tile_types;
 
-    public long seed = 500;
+    public final long seed;
     // The number of blocks each room is wide (square)
-    public int room_diameter = 3;
+    public final int room_diameter;
 
     // The height (as in gravity direction) of each room
-    public int room_height = 5;
+    public final int room_height;
 
     // The depth in dungeon levels below which the actual dungeon starts.
-    public int initial_depth = 5;
+    public final int initial_depth = 5;
 
     // The diameter of the dungeon.
-    public int maze_height = 25;
+    public final int maze_height;
 
-    public int maze_width = 80;
+    public final int maze_width;
 
     // The depth of the dungeon.
-    public int maze_depth = 5;
+    public final int maze_depth;
 
     // The thickness of the floor/ceiling
-    public int floor_thickness = 4;
+    public final int floor_thickness;
 
     // The entrance of the maze. The maze extens northwest from this position.
-    public Vector3i entrance = new Vector3i(0,0,5);
+    public final ImmutableVector3i entrance;
+
     public int maxTileX() {
         return entrance.x() + maze_width*room_diameter;
     }
@@ -179,24 +293,78 @@ public class MazeInfo {
     {
       return entrance.z();
     }
+    /**
+     * @return the blocks of the entrance shaft, up to its top level. Together with the body these are exactly the
+     * positions accepted by isInsideBoundaries (the shaft is unbounded above there, but has no rooms).
+     */
+    public Region3i getShaftBounds() {
+        return shaft_bounds;
+    }
+    /**
+     * @return the blocks of the main dungeon body.
+     */
+    public Region3i getBodyBounds() {
+        return body_bounds;
+    }
     public boolean isInsideBoundaries(Vector3i position)
+    {
+        return isInsideBoundaries(position.x(), position.y(), position.z());
+    }
+    public boolean isInsideBoundaries(int x, int y, int z)
     {
         // Catch the tunnel leading down
-        if (position.x() >= entrance.x() &&
-                position.x() < entrance.x() + room_diameter &&
-                position.z() >= entrance.z() &&
-                position.z() < entrance.z() + room_diameter &&
-                position.y() > minTileY()
+        if (x >= entrance.x() &&
+                x < entrance.x() + room_diameter &&
+                z >= entrance.z() &&
+                z < entrance.z() + room_diameter &&
+                y > minTileY()
                 )
         {
             return true;
         }
-        return (position.x() > minTileX() &&
-                position.y() > minTileY() &&
-                position.z() > minTileZ() &&
-                position.x() < maxTileX() &&
-                position.y() < maxTileY() &&
-                position.z() < maxTileZ());
+        return (x > minTileX() &&
+                y > minTileY() &&
+                z > minTileZ() &&
+                x < maxTileX() &&
+                y < maxTileY() &&
+                z < maxTileZ());
+    }
+    /**
+     * Tests whether the region touches any open room of the maze, or any wall as well if include_walls is set, using
+     * the occupancy indices of each level it spans.
+     */
+    public boolean intersectsMaze(Region3i region, boolean include_walls)
+    {
+        return intersectsMazeWithin(region.intersect(shaft_bounds), include_walls) ||
+                intersectsMazeWithin(region.intersect(body_bounds), include_walls);
+    }
+    private boolean intersectsMazeWithin(Region3i box, boolean include_walls)
+    {
+        if (box.isEmpty())
+        {
+            return false;
+        }
+        // Levels count downwards, so the top of the box is the first level
+        for (int level = getLevel(box.maxY()); level <= getLevel(box.minY()); level++)
+        {
+            MazeFloor floor = getFloor(level);
+            if (floor == null)
+            {
+                continue;
+            }
+            int min_x = getRoomX(box.minX());
+            int min_z = getRoomZ(box.minZ());
+            int max_x = getRoomX(box.maxX());
+            int max_z = getRoomZ(box.maxZ());
+            int rooms = include_walls
+                    ? floor.countOccupied(min_x, min_z, max_x, max_z)
+                    : floor.countOpen(min_x, min_z, max_x, max_z);
+            if (rooms > 0)
+            {
+                return true;
+            }
+        }
+        return false;
     }
     public Vector3i getRoomID(Vector3i position)
     {
@@ -204,21 +372,86 @@ public class MazeInfo {
         {
             return null;
         }
-        int x = (position.x() - entrance.x())/room_diameter;
-        // Dungeon level increases as we go down
-        int y = - (position.y() - entrance.y())/(room_height+floor_thickness);
-        int z = (position.z() - entrance.z())/room_diameter;
-        return new Vector3i(x,y,z);
+        return new Vector3i(getRoomX(position.x()), getLevel(position.y()), getRoomZ(position.z()));
     }
     public Vector3i getPositionInRoom(Vector3i position)
     {
-        int x_remainder = (position.x() - entrance.x()) % room_diameter;
-        int y_remainder = -(position.y() - entrance.y()) % (room_height+floor_thickness);
-        if (position.y() > entrance.y())
+        return new Vector3i(getRelativeX(position.x()), getRelativeY(position.y()), getRelativeZ(position.z()));
+    }
+
+    // The per-axis parts of getRoomID and getPositionInRoom, for callers that cannot afford to allocate.
+    public int getRoomX(int x)
+    {
+        return (x - entrance.x())/room_diameter;
+    }
+    public int getLevel(int y)
+    {
+        // Dungeon level increases as we go down
+        return - (y - entrance.y())/(room_height+floor_thickness);
+    }
+    public int getRoomZ(int z)
+    {
+        return (z - entrance.z())/room_diameter;
+    }
+    public int getRelativeX(int x)
+    {
+        return (x - entrance.x()) % room_diameter;
+    }
+    public int getRelativeY(int y)
+    {
+        if (y > entrance.y())
+        {
+            return room_height+floor_thickness - (y - entrance.y()) % (room_height+floor_thickness);
+        }
+        return -(y - entrance.y()) % (room_height+floor_thickness);
+    }
+    public int getRelativeZ(int z)
+    {
+        return (z - entrance.z()) % room_diameter;
+    }
+
+    /**
+     * @return the given level, generating it first if necessary, or null if the maze does not reach that level.
+     */
+    public MazeFloor getFloor(int level)
+    {
+        if (level <= 0)
+        {
+            return level > -SHAFT_HEIGHT ? shaft : null;
+        }
+        if (level >= maze_depth)
         {
-            y_remainder = room_height+floor_thickness - (position.y() - entrance.y()) % (room_height+floor_thickness);
+            return null;
         }
-        int z_remainder = (position.z() - entrance.z()) % room_diameter;
-        return new Vector3i(x_remainder,y_remainder,z_remainder);
+        return floors.getUnchecked(level);
+    }
+
+    /**
+     * @return true if the levels of this layout come from a {@link MazeLayoutFile}.
+     */
+    public boolean isStored() {
+        return stored != null;
+    }
+
+    /**
+     * Like {@link #getFloor}, but levels that are not cached are generated without being added to the cache, so that
+     * writing out a deep dungeon does not push the levels in use out of it.
+     */
+    MazeFloor getFloorForStorage(int level) {
+        MazeFloor floor = floors.getIfPresent(level);
+        return floor != null ? floor : generateFloor(level);
+    }
+    public byte getTileCode(int x, int level, int z)
+    {
+        MazeFloor floor = getFloor(level);
+        return floor == null ? MazeTile.SOLID : floor.getTileCode(x, z);
+    }
+    public MazeTile getTile(int x, int level, int z)
+    {
+        return tile_types[getTileCode(x, level, z)];
+    }
+    public MazeTile getTileType(byte code)
+    {
+        return tile_types[code];
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of generated maze layouts, keyed by seed and generation parameters.
+ * <p>
+ * Chunk generation threads share the cached {@link MazeInfo} instances without further locking. The cache is bounded
+ * so that layouts of worlds that are no longer being generated are eventually dropped.
+ */
+public final class MazeLayoutCache {
+    private static final Logger logger = LoggerFactory.getLogger(MazeLayoutCache.class);
+
+    // A handful of worlds per process is plenty; older layouts are simply regenerated if they are needed again.
+    private static final int MAX_LAYOUTS = 4;
+    private static final int EXPIRE_MINUTES = 30;
+
+    private static final LoadingCache<Key, MazeInfo> LAYOUTS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_LAYOUTS)
+            .expireAfterAccess(EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .build(new CacheLoader<Key, MazeInfo>() {
+                @Override
+                public MazeInfo load(Key key) {
+                    return new MazeInfo(key.seed, key.parameters);
+                }
+            });
+
+    // The levels around the entrance that are generated ahead of time: enough for the first chunks, and well within
+    // the floor cache of a layout, so that they are still there when those chunks are requested.
+    static final int PRECOMPUTED_LEVELS = 4;
+
+    // Precomputation runs on its own daemon thread, so it neither blocks nor keeps alive anything else.
+    private static final ExecutorService PRECOMPUTE = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Maze layout precomputation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MazeLayoutCache() {
+    }
+
+    public static MazeInfo get(long seed) {
+        return get(seed, MazeParameters.DEFAULT);
+    }
+
+    public static MazeInfo get(long seed, MazeParameters parameters) {
+        return LAYOUTS.getUnchecked(new Key(seed, parameters));
+    }
+
+    /**
+     * Like {@link #get(long, MazeParameters)}, but a layout that is not cached yet is first looked for in the given
+     * directory (see {@link MazeLayoutFile}). A null directory means there is nowhere to look.
+     */
+    public static MazeInfo get(long seed, MazeParameters parameters, Path layout_directory) {
+        if (layout_directory == null) {
+            return get(seed, parameters);
+        }
+        try {
+            return LAYOUTS.get(new Key(seed, parameters), () -> load(seed, parameters, layout_directory));
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts generating the layout and its first {@link #PRECOMPUTED_LEVELS} levels in the background, ahead of the
+     * first chunk requests. Deeper levels are left to whoever gets there. If a layout directory is given, the layout
+     * is read from there when possible; nothing is written, see {@link #store}.
+     * <p>
+     * Nothing has to wait for the returned future: {@link #get} and {@link MazeInfo#getFloor} hand out whatever is
+     * ready, wait for a level that is being generated right now, and generate any other level on the spot. Failures
+     * are logged.
+     */
+    public static CompletableFuture<MazeInfo> precompute(long seed, MazeParameters parameters, Path layout_directory) {
+        CompletableFuture<MazeInfo> future = CompletableFuture.supplyAsync(() -> {
+            MazeInfo maze_info = get(seed, parameters, layout_directory);
+            maze_info.generateFloors(1, PRECOMPUTED_LEVELS);
+            return maze_info;
+        }, PRECOMPUTE);
+        future.whenComplete((maze_info, failure) -> {
+            if (failure != null) {
+                logger.error("Failed to precompute the maze layout of seed {}, it will be generated on demand", seed,
+                        failure);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Writes the first {@link #PRECOMPUTED_LEVELS} levels of the layout to the given directory in the background,
+     * unless it already holds them, so that the next session can read them instead of generating them. Runs after
+     * any precomputation started before. Failures are logged.
+     */
+    public static CompletableFuture<Void> store(long seed, MazeParameters parameters, Path layout_directory) {
+        return CompletableFuture.runAsync(() -> {
+            Path file = MazeLayoutFile.getPath(layout_directory, seed, parameters);
+            try {
+                if (MazeLayoutFile.open(file, seed, parameters) == null) {
+                    MazeLayoutFile.write(file, get(seed, parameters, layout_directory), PRECOMPUTED_LEVELS);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to store the maze layout, it will be generated again next time", e);
+            }
+        }, PRECOMPUTE);
+    }
+
+    private static MazeInfo load(long seed, MazeParameters parameters, Path layout_directory) {
+        Path file = MazeLayoutFile.getPath(layout_directory, seed, parameters);
+        try {
+            MazeLayoutFile stored = MazeLayoutFile.open(file, seed, parameters);
+            if (stored != null) {
+                return new MazeInfo(seed, parameters, stored);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read the maze layout {}, generating it instead", file, e);
+        }
+        return new MazeInfo(seed, parameters);
+    }
+
+    private static final class Key {
+        private final long seed;
+        private final MazeParameters parameters;
+
+        private Key(long seed, MazeParameters parameters) {
+            this.seed = seed;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return seed == other.seed && parameters.equals(other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(seed) + parameters.hashCode();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A maze layout stored on disk, so that reopening a world maps a file instead of generating every level again.
+ * <p>
+ * The file is a header holding the format version, the seed, every {@link MazeParameters} field and the number of
+ * stored levels, followed by one record per level from level 1 on (up and down stairs, then the tile codes, which
+ * also identify the room templates) and a CRC32 of everything before it. Files are read through a read-only memory
+ * map; a level is only copied out when it is first asked for. Levels below the stored ones are generated as usual.
+ * Anything that does not match exactly is treated as stale and the layout is regenerated.
+ */
+public final class MazeLayoutFile {
+    private static final int MAGIC = 0x4D415A45; // "MAZE"
+    // Bump whenever the format or the generation algorithm changes, so that old files are regenerated.
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 * 4 + 8 + 10 * 4;
+    private static final int CHECKSUM_SIZE = 8;
+
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int level_count;
+
+    private MazeLayoutFile(MappedByteBuffer buffer, int width, int height, int level_count) {
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.level_count = level_count;
+    }
+
+    /**
+     * @return where the layout of the given maze is stored in the given directory.
+     */
+    public static Path getPath(Path directory, long seed, MazeParameters parameters) {
+        return directory.resolve(String.format("maze-%016x-%08x.layout", seed, parameters.hashCode()));
+    }
+
+    /**
+     * Maps a stored layout.
+     *
+     * @return the layout, or null if there is no file or it does not belong to the given seed and parameters,
+     * has an older format or is damaged.
+     */
+    public static MazeLayoutFile open(Path file, long seed, MazeParameters parameters) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + CHECKSUM_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        header.position(8);
+        int width = header.getInt();
+        int height = header.getInt();
+        if (header.getLong() != seed
+                || header.getInt() != parameters.room_diameter
+                || header.getInt() != parameters.room_height
+                || header.getInt() != parameters.floor_thickness
+                || header.getInt() != parameters.maze_width
+                || header.getInt() != parameters.maze_height
+                || header.getInt() != parameters.maze_depth
+                || header.getInt() != parameters.entrance.x()
+                || header.getInt() != parameters.entrance.y()
+                || header.getInt() != parameters.entrance.z()) {
+            return null;
+        }
+        int level_count = header.getInt();
+        long size = HEADER_SIZE + (long) level_count * getLevelSize(width, height) + CHECKSUM_SIZE;
+        if (level_count < 0 || level_count > Math.max(parameters.maze_depth - 1, 0)
+                || width != parameters.maze_width || height != parameters.maze_height || buffer.capacity() != size) {
+            return null;
+        }
+
+        int checksum_position = buffer.capacity() - CHECKSUM_SIZE;
+        CRC32 crc = new CRC32();
+        ByteBuffer contents = buffer.duplicate();
+        contents.position(0).limit(checksum_position);
+        crc.update(contents);
+        if (buffer.getLong(checksum_position) != crc.getValue()) {
+            return null;
+        }
+        return new MazeLayoutFile(buffer, width, height, level_count);
+    }
+
+    /**
+     * Writes the given number of levels of the given maze, from level 1 on; levels the maze does not have are left out.
+     * The file is written next to its final location and then moved into place, so readers never see a half written
+     * layout.
+     */
+    public static void write(Path file, MazeInfo maze_info, int level_count) throws IOException {
+        int width = maze_info.maze_width;
+        int height = maze_info.maze_height;
+        level_count = Math.max(Math.min(level_count, maze_info.maze_depth - 1), 0);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + level_count * getLevelSize(width, height) + CHECKSUM_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(width)
+                .putInt(height)
+                .putLong(maze_info.seed)
+                .putInt(maze_info.room_diameter)
+                .putInt(maze_info.room_height)
+                .putInt(maze_info.floor_thickness)
+                .putInt(maze_info.maze_width)
+                .putInt(maze_info.maze_height)
+                .putInt(maze_info.maze_depth)
+                .putInt(maze_info.entrance.x())
+                .putInt(maze_info.entrance.y())
+                .putInt(maze_info.entrance.z())
+                .putInt(level_count);
+        for (int level = 1; level <= level_count; level++) {
+            MazeFloor floor = maze_info.getFloorForStorage(level);
+            buffer.putInt(floor.getUpStairs().x())
+                    .putInt(floor.getUpStairs().y())
+                    .putInt(floor.getDownStairs().x())
+                    .putInt(floor.getDownStairs().y());
+            for (int z = 0; z < height; z++) {
+                for (int x = 0; x < width; x++) {
+                    buffer.put(floor.getTileCode(x, z));
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, buffer.array());
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the number of stored levels, counted from level 1.
+     */
+    public int getLevelCount() {
+        return level_count;
+    }
+
+    /**
+     * Copies a level out of the mapped file.
+     */
+    MazeFloor readFloor(int level) {
+        ByteBuffer record = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        record.position(HEADER_SIZE + (level - 1) * getLevelSize(width, height));
+        int up_x = record.getInt();
+        int up_z = record.getInt();
+        int down_x = record.getInt();
+        int down_z = record.getInt();
+        byte[] tiles = new byte[width * height];
+        record.get(tiles);
+        MazeFloor floor = new MazeFloor(width, height, tiles);
+        floor.setStairs(up_x, up_z, down_x, down_z);
+        floor.finish();
+        return floor;
+    }
+
+    private static int getLevelSize(int width, int height) {
+        return 4 * 4 + width * height;
+    }
+}
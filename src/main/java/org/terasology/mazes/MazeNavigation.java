@@ -0,0 +1,403 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import org.terasology.math.geom.ImmutableVector2i;
+
+import java.util.Arrays;
+
+/**
+ * The navigation graph of a maze: the open rooms of every level (see {@link MazeFloor#isOpen}) are its nodes, rooms
+ * next to each other along x or z are connected, and the stairs link the levels. The down stairs of a level lead to
+ * the up stairs of the next one, which are always in the same room; in the shaft every level links to the next.
+ * <p>
+ * Rooms are identified by their index x + z * width within their level. For every level the distances to its up and
+ * down stairs are precomputed on first use and cached, so that following them is a few array reads per step. Paths
+ * between arbitrary rooms of a level are found with A*, on search state that is allocated once per thread; paths
+ * between levels follow those distances from stairs to stairs.
+ * <p>
+ * A MazeNavigation may be shared between threads.
+ */
+public final class MazeNavigation {
+    public static final int UNREACHABLE = -1;
+
+    private static final int[] NEIGHBOUR_X = {1, -1, 0, 0};
+    private static final int[] NEIGHBOUR_Z = {0, 0, 1, -1};
+
+    private final MazeInfo maze_info;
+    private final int width;
+    private final int height;
+
+    // {distances to the up stairs, distances to the down stairs} per level
+    private final LevelCache<int[][]> stair_distances;
+
+    private final ThreadLocal<Search> searches;
+
+    public MazeNavigation(MazeInfo maze_info) {
+        this.maze_info = maze_info;
+        this.width = maze_info.maze_width;
+        this.height = maze_info.maze_height;
+        this.stair_distances = new LevelCache<>(level -> {
+            MazeFloor floor = maze_info.getFloor(level);
+            return new int[][] {
+                    computeDistances(floor, floor.getUpStairs()),
+                    computeDistances(floor, floor.getDownStairs())};
+        });
+        this.searches = ThreadLocal.withInitial(() -> new Search(width * height));
+    }
+
+    /**
+     * @return the room index of the given room coordinates
+     */
+    public int getRoomIndex(int x, int z) {
+        return x + z * width;
+    }
+
+    public int getRoomX(int room_index) {
+        return room_index % width;
+    }
+
+    public int getRoomZ(int room_index) {
+        return room_index / width;
+    }
+
+    /**
+     * @return the room index of the stairs leading down (or up) from the given level. Taking them leads to the same
+     * room of the next (or previous) level.
+     */
+    public int getStairsRoom(int level, boolean down) {
+        MazeFloor floor = maze_info.getFloor(level);
+        if (floor == null) {
+            throw new IllegalArgumentException("The maze has no level " + level);
+        }
+        ImmutableVector2i stairs = down ? floor.getDownStairs() : floor.getUpStairs();
+        return getRoomIndex(stairs.x(), stairs.y());
+    }
+
+    /**
+     * @return the number of steps from every room of the level to its down stairs, {@link #UNREACHABLE} for solid
+     * or cut off rooms, indexed by room index. The array is shared and must not be modified.
+     */
+    public int[] getDistancesToDownStairs(int level) {
+        return getStairDistances(level)[1];
+    }
+
+    /**
+     * Like {@link #getDistancesToDownStairs}, towards the up stairs.
+     */
+    public int[] getDistancesToUpStairs(int level) {
+        return getStairDistances(level)[0];
+    }
+
+    /**
+     * @return the room to go to next to get closer to the stairs, the room itself if it holds the stairs, or
+     * {@link #UNREACHABLE} if they cannot be reached from there.
+     */
+    public int getStepTowardsStairs(int level, int x, int z, boolean down) {
+        int[] distances = getStairDistances(level)[down ? 1 : 0];
+        if (!contains(x, z)) {
+            return UNREACHABLE;
+        }
+        return getStep(distances, getRoomIndex(x, z));
+    }
+
+    /**
+     * Finds a shortest path between two rooms of a level with A*. Nothing is allocated per search.
+     *
+     * @param path receives the room indices of the path, from start to goal inclusive, if it is long enough
+     * @return the number of rooms on the path, or {@link #UNREACHABLE}. If this is more than path.length, path is left
+     * as it was and the search needs to be repeated with a larger array.
+     */
+    public int findPath(int level, int from_x, int from_z, int to_x, int to_z, int[] path) {
+        MazeFloor floor = maze_info.getFloor(level);
+        if (floor == null || !floor.isOpen(from_x, from_z) || !floor.isOpen(to_x, to_z)) {
+            return UNREACHABLE;
+        }
+        return searches.get().run(floor, getRoomIndex(from_x, from_z), getRoomIndex(to_x, to_z), path);
+    }
+
+    /**
+     * Finds a shortest path between rooms of any two levels. The stairs are the only links between levels, so it
+     * leads from stairs to stairs on every level in between; nothing is searched or allocated beyond the distances
+     * to the stairs of those levels.
+     * <p>
+     * Every staircase taken shows up as its room twice in a row, once on either level, which is how the levels of the
+     * rooms on the path can be told apart: they start at from_level and change by one towards to_level at every
+     * repeated room.
+     *
+     * @param path receives the room indices of the path, from start to goal inclusive, if it is long enough
+     * @return the number of rooms on the path, or {@link #UNREACHABLE}. If this is more than path.length, path is left
+     * as it was and the search needs to be repeated with a larger array.
+     */
+    public int findPath(int from_level, int from_x, int from_z, int to_level, int to_x, int to_z, int[] path) {
+        if (from_level == to_level) {
+            return findPath(from_level, from_x, from_z, to_x, to_z, path);
+        }
+        if (maze_info.getFloor(from_level) == null || maze_info.getFloor(to_level) == null
+                || !contains(from_x, from_z) || !contains(to_x, to_z)) {
+            return UNREACHABLE;
+        }
+        boolean down = to_level > from_level;
+        int level_step = down ? 1 : -1;
+        int start = getRoomIndex(from_x, from_z);
+        int goal = getRoomIndex(to_x, to_z);
+
+        // Measure the path first, so that nothing is written unless all of it fits
+        int length = 0;
+        int room = start;
+        for (int level = from_level; level != to_level; level += level_step) {
+            int distance = getStairDistances(level)[down ? 1 : 0][room];
+            if (distance == UNREACHABLE) {
+                return UNREACHABLE;
+            }
+            length += distance + 1;
+            room = getStairsRoom(level, down);
+        }
+        // The stairs the goal level is entered by
+        int[] last_distances = getStairDistances(to_level)[down ? 0 : 1];
+        if (last_distances[goal] == UNREACHABLE) {
+            return UNREACHABLE;
+        }
+        length += last_distances[goal] + 1;
+        if (length > path.length) {
+            return length;
+        }
+
+        int offset = 0;
+        room = start;
+        for (int level = from_level; level != to_level; level += level_step) {
+            offset = writeSteps(getStairDistances(level)[down ? 1 : 0], room, false, path, offset);
+            room = getStairsRoom(level, down);
+        }
+        writeSteps(last_distances, goal, true, path, offset);
+        return length;
+    }
+
+    private int[][] getStairDistances(int level) {
+        if (maze_info.getFloor(level) == null) {
+            throw new IllegalArgumentException("The maze has no level " + level);
+        }
+        return stair_distances.get(level);
+    }
+
+    /**
+     * @return the neighbour of the room that is one step closer to where the distances lead, the room itself if it
+     * is there already, or {@link #UNREACHABLE}.
+     */
+    private int getStep(int[] distances, int room) {
+        int distance = distances[room];
+        if (distance == UNREACHABLE) {
+            return UNREACHABLE;
+        }
+        if (distance == 0) {
+            return room;
+        }
+        int x = getRoomX(room);
+        int z = getRoomZ(room);
+        for (int direction = 0; direction < NEIGHBOUR_X.length; direction++) {
+            int neighbour_x = x + NEIGHBOUR_X[direction];
+            int neighbour_z = z + NEIGHBOUR_Z[direction];
+            if (!contains(neighbour_x, neighbour_z)) {
+                continue;
+            }
+            int neighbour = getRoomIndex(neighbour_x, neighbour_z);
+            if (distances[neighbour] == distance - 1) {
+                return neighbour;
+            }
+        }
+        return UNREACHABLE;
+    }
+
+    /**
+     * Writes the rooms from the given room to where the distances lead into path from offset on, or in reverse order
+     * if reversed, i.e. ending with the given room.
+     *
+     * @return the offset after the rooms written
+     */
+    private int writeSteps(int[] distances, int room, boolean reversed, int[] path, int offset) {
+        int count = distances[room] + 1;
+        for (int i = 0; i < count; i++) {
+            path[reversed ? offset + count - 1 - i : offset + i] = room;
+            room = getStep(distances, room);
+        }
+        return offset + count;
+    }
+
+    private boolean contains(int x, int z) {
+        return x >= 0 && z >= 0 && x < width && z < height;
+    }
+
+    /**
+     * Breadth first search from the given room over the open rooms of the floor.
+     */
+    private int[] computeDistances(MazeFloor floor, ImmutableVector2i target) {
+        int[] distances = new int[width * height];
+        Arrays.fill(distances, UNREACHABLE);
+        if (!floor.isOpen(target.x(), target.y())) {
+            return distances;
+        }
+        int[] queue = new int[width * height];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = getRoomIndex(target.x(), target.y());
+        distances[queue[0]] = 0;
+        while (head < tail) {
+            int room = queue[head++];
+            int x = getRoomX(room);
+            int z = getRoomZ(room);
+            for (int direction = 0; direction < NEIGHBOUR_X.length; direction++) {
+                int neighbour_x = x + NEIGHBOUR_X[direction];
+                int neighbour_z = z + NEIGHBOUR_Z[direction];
+                if (floor.isOpen(neighbour_x, neighbour_z)) {
+                    int neighbour = getRoomIndex(neighbour_x, neighbour_z);
+                    if (distances[neighbour] == UNREACHABLE) {
+                        distances[neighbour] = distances[room] + 1;
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * The state of an A* search, reused from search to search. Rooms are only valid for the current search if their
+     * stamp matches, so nothing needs to be cleared in between.
+     */
+    private final class Search {
+        private final int[] stamps;
+        private final int[] costs;
+        private final int[] previous;
+        private final boolean[] closed;
+        // Binary min-heap of rooms by estimated total cost. Rooms may be in there more than once; stale entries are
+        // skipped when they come up. Every room is pushed at most once per neighbour, so 4 entries per room suffice.
+        private final int[] heap_rooms;
+        private final int[] heap_keys;
+        private int heap_size;
+        private int stamp;
+
+        private Search(int room_count) {
+            stamps = new int[room_count];
+            costs = new int[room_count];
+            previous = new int[room_count];
+            closed = new boolean[room_count];
+            heap_rooms = new int[room_count * NEIGHBOUR_X.length + 1];
+            heap_keys = new int[room_count * NEIGHBOUR_X.length + 1];
+        }
+
+        private int run(MazeFloor floor, int start, int goal, int[] path) {
+            stamp++;
+            heap_size = 0;
+            int goal_x = getRoomX(goal);
+            int goal_z = getRoomZ(goal);
+            visit(start, 0, start);
+            push(start, estimate(start, goal_x, goal_z));
+            while (heap_size > 0) {
+                int room = pop();
+                if (closed[room]) {
+                    continue;
+                }
+                closed[room] = true;
+                if (room == goal) {
+                    return writePath(start, goal, path);
+                }
+                int x = getRoomX(room);
+                int z = getRoomZ(room);
+                for (int direction = 0; direction < NEIGHBOUR_X.length; direction++) {
+                    int neighbour_x = x + NEIGHBOUR_X[direction];
+                    int neighbour_z = z + NEIGHBOUR_Z[direction];
+                    if (!floor.isOpen(neighbour_x, neighbour_z)) {
+                        continue;
+                    }
+                    int neighbour = getRoomIndex(neighbour_x, neighbour_z);
+                    int cost = costs[room] + 1;
+                    if (stamps[neighbour] != stamp || cost < costs[neighbour]) {
+                        visit(neighbour, cost, room);
+                        push(neighbour, cost + estimate(neighbour, goal_x, goal_z));
+                    }
+                }
+            }
+            return UNREACHABLE;
+        }
+
+        private void visit(int room, int cost, int from) {
+            if (stamps[room] != stamp) {
+                stamps[room] = stamp;
+                closed[room] = false;
+            }
+            costs[room] = cost;
+            previous[room] = from;
+        }
+
+        private int estimate(int room, int goal_x, int goal_z) {
+            // Manhattan distance: every step moves one room along x or z
+            return Math.abs(getRoomX(room) - goal_x) + Math.abs(getRoomZ(room) - goal_z);
+        }
+
+        private int writePath(int start, int goal, int[] path) {
+            int length = costs[goal] + 1;
+            if (length <= path.length) {
+                int room = goal;
+                for (int i = length - 1; i >= 0; i--) {
+                    path[i] = room;
+                    room = previous[room];
+                }
+            }
+            return length;
+        }
+
+        private void push(int room, int key) {
+            int i = heap_size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (heap_keys[parent] <= key) {
+                    break;
+                }
+                heap_rooms[i] = heap_rooms[parent];
+                heap_keys[i] = heap_keys[parent];
+                i = parent;
+            }
+            heap_rooms[i] = room;
+            heap_keys[i] = key;
+        }
+
+        private int pop() {
+            int top = heap_rooms[0];
+            heap_size--;
+            int room = heap_rooms[heap_size];
+            int key = heap_keys[heap_size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heap_size) {
+                    break;
+                }
+                if (child + 1 < heap_size && heap_keys[child + 1] < heap_keys[child]) {
+                    child++;
+                }
+                if (heap_keys[child] >= key) {
+                    break;
+                }
+                heap_rooms[i] = heap_rooms[child];
+                heap_keys[i] = heap_keys[child];
+                i = child;
+            }
+            heap_rooms[i] = room;
+            heap_keys[i] = key;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+/**
+ * The materials a maze is built from. The world configuration chooses a block for each of them (see
+ * {@link MazeFacet#getBlockUris}), which MazeRasterizer resolves once, up front.
+ */
+public final class MazePalette {
+    // Leave the world as it is
+    public static final byte NONE = 0;
+    // The open space of rooms and tunnels
+    public static final byte CORRIDOR = 1;
+    // The floor between two levels
+    public static final byte FLOOR = 2;
+    // The steps of a staircase
+    public static final byte STAIR = 3;
+    // The rock around open rooms
+    public static final byte WALL = 4;
+
+    public static final int SIZE = 5;
+
+    private MazePalette() {
+    }
+}
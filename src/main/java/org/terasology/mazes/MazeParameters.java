@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import org.terasology.math.geom.ImmutableVector3i;
+
+/**
+ * The generation parameters of a maze. Together with the seed these fully determine a {@link MazeInfo}.
+ */
+public final class MazeParameters {
+    public static final MazeParameters DEFAULT = new MazeParameters(3, 5, 4, 80, 25, 5, new ImmutableVector3i(0, 0, 5));
+
+    // The number of blocks each room is wide (square)
+    public final int room_diameter;
+
+    // The height (as in gravity direction) of each room
+    public final int room_height;
+
+    // The thickness of the floor/ceiling
+    public final int floor_thickness;
+
+    public final int maze_width;
+
+    // The diameter of the dungeon.
+    public final int maze_height;
+
+    // The depth of the dungeon.
+    public final int maze_depth;
+
+    // The entrance of the maze. The maze extends northwest from this position.
+    public final ImmutableVector3i entrance;
+
+    public MazeParameters(int room_diameter, int room_height, int floor_thickness,
+                          int maze_width, int maze_height, int maze_depth, ImmutableVector3i entrance) {
+        this.room_diameter = room_diameter;
+        this.room_height = room_height;
+        this.floor_thickness = floor_thickness;
+        this.maze_width = maze_width;
+        this.maze_height = maze_height;
+        this.maze_depth = maze_depth;
+        this.entrance = entrance;
+    }
+
+    public MazeParameters withDepth(int depth) {
+        return new MazeParameters(room_diameter, room_height, floor_thickness, maze_width, maze_height, depth,
+                entrance);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MazeParameters)) {
+            return false;
+        }
+        MazeParameters other = (MazeParameters) o;
+        return room_diameter == other.room_diameter &&
+                room_height == other.room_height &&
+                floor_thickness == other.floor_thickness &&
+                maze_width == other.maze_width &&
+                maze_height == other.maze_height &&
+                maze_depth == other.maze_depth &&
+                entrance.equals(other.entrance);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = room_diameter;
+        result = 31 * result + room_height;
+        result = 31 * result + floor_thickness;
+        result = 31 * result + maze_width;
+        result = 31 * result + maze_height;
+        result = 31 * result + maze_depth;
+        result = 31 * result + entrance.hashCode();
+        return result;
+    }
+}
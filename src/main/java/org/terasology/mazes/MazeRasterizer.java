@@ -1,6 +1,5 @@
 package org.terasology.mazes;
 
-import org.terasology.math.geom.Vector3i;
 import org.terasology.registry.CoreRegistry;
 import org.terasology.world.block.Block;
 import org.terasology.world.block.BlockManager;
@@ -13,33 +12,94 @@ import org.terasology.world.generator.plugin.RegisterPlugin;
 @RegisterPlugin
 public class MazeRasterizer implements WorldRasterizerPlugin {
 
-    String blockUri;
+    private BlockManager blockManager;
+    private Block air;
+    // The blocks resolved last, along with the URIs they were resolved from. Every facet of a world shares the same
+    // URIs, so they are resolved once rather than per chunk, and again only if the world configuration changes.
+    private volatile ResolvedBlocks resolvedBlocks;
 
     public MazeRasterizer() {
     }
 
-    public MazeRasterizer(String blockUri) {
-        this.blockUri = blockUri;
-    }
-
     @Override
     public void initialize() {
+        blockManager = CoreRegistry.get(BlockManager.class);
+        air = blockManager.getBlock(BlockManager.AIR_ID);
     }
 
     @Override
     public void generateChunk(CoreChunk chunk, Region chunkRegion) {
         MazeFacet mazeFacet = chunkRegion.getFacet(MazeFacet.class);
-        BlockManager blockManager = CoreRegistry.get(BlockManager.class);
-        Block mazeBlock = blockManager.getBlock(BlockManager.AIR_ID);
-        if (blockUri != null) {
-            mazeBlock = blockManager.getBlock(blockUri);
+        MazeFacet.Coverage coverage = mazeFacet.getCoverage();
+        if (coverage == MazeFacet.Coverage.EMPTY) {
+            // Nearly every chunk of the world ends up here
+            return;
+        }
+        Block[] blocks = getBlocks(mazeFacet.getBlockUris());
+        if (coverage == MazeFacet.Coverage.FULL) {
+            Block block = blocks[mazeFacet.getUniformMaterial()];
+            if (block == null) {
+                return;
+            }
+            for (int z = 0; z < ChunkConstants.SIZE_Z; z++) {
+                for (int y = 0; y < ChunkConstants.SIZE_Y; y++) {
+                    for (int x = 0; x < ChunkConstants.SIZE_X; x++) {
+                        chunk.setBlock(x, y, z, block);
+                    }
+                }
+            }
+            return;
+        }
+        // Only visit the runs of each row that belong to the maze, one material at a time
+        int max_x = ChunkConstants.SIZE_X - 1;
+        for (int z = 0; z < ChunkConstants.SIZE_Z; z++) {
+            for (int y = 0; y < ChunkConstants.SIZE_Y; y++) {
+                int x = mazeFacet.nextSetX(0, max_x, y, z);
+                while (x <= max_x) {
+                    int run_end = mazeFacet.nextChangeX(x, max_x, y, z);
+                    Block block = blocks[mazeFacet.getMaterial(x, y, z)];
+                    if (block == null) {
+                        x = run_end;
+                    } else {
+                        for (; x < run_end; x++) {
+                            chunk.setBlock(x, y, z, block);
+                        }
+                    }
+                    if (x <= max_x) {
+                        x = mazeFacet.nextSetX(x, max_x, y, z);
+                    }
+                }
+            }
         }
-        for (Vector3i position : ChunkConstants.CHUNK_REGION) {
-            if (mazeFacet.get(position))
-            {
-                Vector3i vectorWorld = chunk.chunkToWorldPosition(position);
-                chunk.setBlock(position, mazeBlock);
+    }
+
+    /**
+     * @return the blocks of the given URIs by MazePalette id, so that generating a chunk only has to index an array.
+     * A null entry leaves those blocks untouched, except for corridors, which default to air.
+     */
+    private Block[] getBlocks(String[] blockUris) {
+        ResolvedBlocks resolved = resolvedBlocks;
+        if (resolved == null || resolved.blockUris != blockUris) {
+            Block[] blocks = new Block[MazePalette.SIZE];
+            for (int material = 0; material < MazePalette.SIZE; material++) {
+                blocks[material] = blockUris[material] == null ? null : blockManager.getBlock(blockUris[material]);
             }
+            if (blocks[MazePalette.CORRIDOR] == null) {
+                blocks[MazePalette.CORRIDOR] = air;
+            }
+            resolved = new ResolvedBlocks(blockUris, blocks);
+            resolvedBlocks = resolved;
+        }
+        return resolved.blocks;
+    }
+
+    private static final class ResolvedBlocks {
+        private final String[] blockUris;
+        private final Block[] blocks;
+
+        private ResolvedBlocks(String[] blockUris, Block[] blocks) {
+            this.blockUris = blockUris;
+            this.blocks = blocks;
         }
     }
 }
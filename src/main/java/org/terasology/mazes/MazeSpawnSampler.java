@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import org.terasology.math.geom.Vector3i;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Picks random spawn points for monsters and items on the levels of a maze: rooms of plain floor, i.e. open rooms
+ * other than stairs, so that nothing spawns on a staircase or blocks it.
+ * <p>
+ * The candidate rooms of every level are collected into an array of room indices (x + z * width, like in
+ * {@link MazeNavigation}) on first use and cached. Rooms are picked uniformly, or in proportion to their weight if
+ * weights are given; those are turned into an alias table (Vose's method) once per level. Either way a pick takes
+ * constant time, allocates nothing and depends only on the given random stream, so spawns can be replayed from a
+ * seed (see {@link #createRandom}).
+ * <p>
+ * A MazeSpawnSampler may be shared between threads, as long as each one uses its own random streams.
+ */
+public final class MazeSpawnSampler {
+    public static final int NONE = -1;
+
+    public interface RoomWeights {
+        /**
+         * @return how likely spawning in the given room of the level is, relative to the other rooms. Rooms of
+         * weight 0 (or less) are never picked.
+         */
+        float getWeight(int level, int x, int z);
+    }
+
+    // The stream of MazeInfo.deriveSeed the spawn streams derive from; levels start at 1, so it is not used otherwise
+    private static final long SPAWN_STREAM = -1;
+
+    private final MazeInfo maze_info;
+    private final RoomWeights weights;
+    private final int width;
+
+    private final LevelCache<Table> tables = new LevelCache<>(Table::new);
+
+    /**
+     * Sets up a sampler that picks every spawn room with the same probability.
+     */
+    public MazeSpawnSampler(MazeInfo maze_info) {
+        this(maze_info, null);
+    }
+
+    public MazeSpawnSampler(MazeInfo maze_info, RoomWeights weights) {
+        this.maze_info = maze_info;
+        this.weights = weights;
+        this.width = maze_info.maze_width;
+    }
+
+    /**
+     * @return a random stream determined by the seed of the maze and the given stream number alone, e.g. a level or
+     * a tick, for spawns that come out the same every time.
+     */
+    public SplittableRandom createRandom(long stream) {
+        return new SplittableRandom(MazeInfo.deriveSeed(MazeInfo.deriveSeed(maze_info.seed, SPAWN_STREAM), stream));
+    }
+
+    /**
+     * @return the number of rooms that can be picked on the given level of the dungeon proper
+     */
+    public int getRoomCount(int level) {
+        return getTable(level).rooms.length;
+    }
+
+    /**
+     * @return the room index of a random spawn room of the given level, or {@link #NONE} if it has none
+     */
+    public int sampleRoom(int level, SplittableRandom random) {
+        return getTable(level).sample(random);
+    }
+
+    /**
+     * Picks a random spawn room of the given level and stores the world position of the middle of its floor, i.e. the
+     * lowest open block above it, in spawn_point.
+     *
+     * @return false if the level has no spawn rooms, in which case spawn_point is left as it was
+     */
+    public boolean sampleSpawnPoint(int level, SplittableRandom random, Vector3i spawn_point) {
+        int room = sampleRoom(level, random);
+        if (room == NONE) {
+            return false;
+        }
+        int period = maze_info.room_height + maze_info.floor_thickness;
+        spawn_point.set(
+                maze_info.entrance.x() + (room % width) * maze_info.room_diameter + maze_info.room_diameter / 2,
+                maze_info.entrance.y() - level * period - maze_info.room_height,
+                maze_info.entrance.z() + (room / width) * maze_info.room_diameter + maze_info.room_diameter / 2);
+        return true;
+    }
+
+    private Table getTable(int level) {
+        if (level <= 0 || maze_info.getFloor(level) == null) {
+            throw new IllegalArgumentException("The maze has no level " + level + " to spawn on");
+        }
+        return tables.get(level);
+    }
+
+    /**
+     * The spawn rooms of one level, and their alias table if they are weighted: room i is kept with probability
+     * keep[i], and otherwise replaced by room alias[i].
+     */
+    private final class Table {
+        private final int[] rooms;
+        private final double[] keep;
+        private final int[] alias;
+
+        private Table(int level) {
+            MazeFloor floor = maze_info.getFloor(level);
+            int[] candidates = new int[floor.getWidth() * floor.getHeight()];
+            float[] room_weights = new float[candidates.length];
+            int count = 0;
+            for (int z = 0; z < floor.getHeight(); z++) {
+                for (int x = 0; x < floor.getWidth(); x++) {
+                    if (floor.getTileCode(x, z) != MazeTile.AIR) {
+                        continue;
+                    }
+                    float weight = weights != null ? weights.getWeight(level, x, z) : 1;
+                    if (weight > 0) {
+                        candidates[count] = x + z * width;
+                        room_weights[count] = weight;
+                        count++;
+                    }
+                }
+            }
+            rooms = Arrays.copyOf(candidates, count);
+            if (weights != null && count > 0) {
+                keep = new double[count];
+                alias = new int[count];
+                buildAliases(Arrays.copyOf(room_weights, count));
+            } else {
+                keep = null;
+                alias = null;
+            }
+        }
+
+        /**
+         * Vose's method: rooms below the average weight are topped up by one room above it, which then counts as
+         * below or above the average by what it has left.
+         */
+        private void buildAliases(float[] room_weights) {
+            int count = room_weights.length;
+            double total = 0;
+            for (float weight : room_weights) {
+                total += weight;
+            }
+            double[] scaled = new double[count];
+            // Both work lists share one array: small rooms from the front, large ones from the back
+            int[] work = new int[count];
+            int small = 0;
+            int large = count;
+            for (int i = 0; i < count; i++) {
+                scaled[i] = room_weights[i] * count / total;
+                if (scaled[i] < 1) {
+                    work[small++] = i;
+                } else {
+                    work[--large] = i;
+                }
+            }
+            while (small > 0 && large < count) {
+                int less = work[--small];
+                int more = work[large++];
+                keep[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] -= 1 - scaled[less];
+                if (scaled[more] < 1) {
+                    work[small++] = more;
+                } else {
+                    work[--large] = more;
+                }
+            }
+            // Whatever is left is at the average, give or take rounding
+            while (small > 0) {
+                keep[work[--small]] = 1;
+            }
+            while (large < count) {
+                keep[work[large++]] = 1;
+            }
+        }
+
+        private int sample(SplittableRandom random) {
+            if (rooms.length == 0) {
+                return NONE;
+            }
+            int i = random.nextInt(rooms.length);
+            if (keep != null && random.nextDouble() >= keep[i]) {
+                i = alias[i];
+            }
+            return rooms[i];
+        }
+    }
+}
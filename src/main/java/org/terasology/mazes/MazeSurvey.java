@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.LongStream;
+
+/**
+ * Headless survey of maze layouts over a range of seeds, for picking and checking seeds without starting the game.
+ * <p>
+ * Seeds are generated in parallel on all cores. Every seed yields one line of tab separated statistics on standard
+ * output (or the given file), in no particular order:
+ * <ul>
+ * <li>the seed and the generation time of all its levels in milliseconds,</li>
+ * <li>the deepest level whose down stairs can be reached from the entrance,</li>
+ * <li>the length of that route in rooms, i.e. the tunnels walked from stairs to stairs,</li>
+ * <li>the number of open rooms of every level, comma separated.</li>
+ * </ul>
+ * Optionally every layout is written to its own ASCII and/or PNG file as soon as it is done, so that memory use
+ * does not depend on the number of seeds.
+ * <p>
+ * Usage: MazeSurvey first_seed last_seed [--depth levels] [--out stats.tsv] [--ascii directory] [--png directory]
+ */
+public final class MazeSurvey {
+    // One character per tile code
+    private static final char[] ASCII_TILES = {' ', '.', '<', '>', '%', '#'};
+    // One colour per tile code
+    private static final int[] PNG_TILES = {0x000000, 0xc0c0c0, 0x00c000, 0xc00000, 0xc0c000, 0x606060};
+
+    private final MazeParameters parameters;
+    private final Path ascii_directory;
+    private final Path png_directory;
+
+    private MazeSurvey(MazeParameters parameters, Path ascii_directory, Path png_directory) {
+        this.parameters = parameters;
+        this.ascii_directory = ascii_directory;
+        this.png_directory = png_directory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            exitWithUsage();
+        }
+        System.setProperty("java.awt.headless", "true");
+        long first_seed = parseNumber("first_seed", args[0], Long.MIN_VALUE, Long.MAX_VALUE);
+        long last_seed = parseNumber("last_seed", args[1], Long.MIN_VALUE, Long.MAX_VALUE);
+        MazeParameters parameters = MazeParameters.DEFAULT;
+        Path out = null;
+        Path ascii_directory = null;
+        Path png_directory = null;
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                System.err.println("Missing value for " + args[i]);
+                exitWithUsage();
+            }
+            switch (args[i]) {
+                case "--depth":
+                    // Level 0 is the surface, so anything less has no maze to survey
+                    parameters = parameters.withDepth((int) parseNumber("depth", args[i + 1], 2, Integer.MAX_VALUE));
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--ascii":
+                    ascii_directory = Files.createDirectories(Paths.get(args[i + 1]));
+                    break;
+                case "--png":
+                    png_directory = Files.createDirectories(Paths.get(args[i + 1]));
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    exitWithUsage();
+            }
+        }
+
+        MazeSurvey survey = new MazeSurvey(parameters, ascii_directory, png_directory);
+        try (Writer writer = out != null
+                ? Files.newBufferedWriter(out, StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            writer.write("seed\tmillis\treachable_level\troute_length\topen_rooms\n");
+            LongStream.rangeClosed(first_seed, last_seed).parallel().forEach(seed -> {
+                String line = survey.survey(seed);
+                synchronized (writer) {
+                    try {
+                        writer.write(line);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the given argument, or exits with the usage if it is not a whole number within the given bounds
+     */
+    private static long parseNumber(String name, String value, long min, long max) {
+        long number = 0;
+        try {
+            number = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + name + ": " + value + " is not a whole number");
+            exitWithUsage();
+        }
+        if (number < min || number > max) {
+            System.err.println("Invalid " + name + ": " + value + " is not between " + min + " and " + max);
+            exitWithUsage();
+        }
+        return number;
+    }
+
+    private static void exitWithUsage() {
+        System.err.println("Usage: MazeSurvey first_seed last_seed [--depth levels] [--out stats.tsv] "
+                + "[--ascii directory] [--png directory]");
+        System.exit(1);
+    }
+
+    /**
+     * Generates and measures one layout, and dumps it if asked to.
+     *
+     * @return the line of statistics of the seed
+     */
+    private String survey(long seed) {
+        // Planning the layout is part of generating it
+        long start = System.nanoTime();
+        // Not through MazeLayoutCache: every layout is only needed once, and must not stay around
+        MazeInfo maze_info = new MazeInfo(seed, parameters);
+        MazeFloor[] floors = new MazeFloor[maze_info.maze_depth];
+        for (int level = 1; level < maze_info.maze_depth; level++) {
+            floors[level] = maze_info.getFloor(level);
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        // The shaft leads straight to the up stairs of level 1; from there, follow the stairs down as far as possible
+        MazeNavigation navigation = new MazeNavigation(maze_info);
+        int reachable_level = 0;
+        int route_length = 0;
+        for (int level = 1; level < maze_info.maze_depth; level++) {
+            int distance = navigation.getDistancesToDownStairs(level)[navigation.getStairsRoom(level, false)];
+            if (distance == MazeNavigation.UNREACHABLE) {
+                break;
+            }
+            reachable_level = level;
+            route_length += distance;
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append(seed).append('\t').append(millis).append('\t')
+                .append(reachable_level).append('\t').append(route_length).append('\t');
+        for (int level = 1; level < maze_info.maze_depth; level++) {
+            if (level > 1) {
+                line.append(',');
+            }
+            line.append(countOpen(floors[level]));
+        }
+        line.append('\n');
+
+        try {
+            if (ascii_directory != null) {
+                writeAscii(ascii_directory.resolve("maze-" + seed + ".txt"), floors);
+            }
+            if (png_directory != null) {
+                writePng(png_directory.resolve("maze-" + seed + ".png"), floors);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return line.toString();
+    }
+
+    private static int countOpen(MazeFloor floor) {
+        int open = 0;
+        for (int z = 0; z < floor.getHeight(); z++) {
+            for (int x = 0; x < floor.getWidth(); x++) {
+                if (floor.isOpen(x, z)) {
+                    open++;
+                }
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Writes the levels one below the other, one character per room.
+     */
+    private static void writeAscii(Path file, MazeFloor[] floors) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int level = 1; level < floors.length; level++) {
+                MazeFloor floor = floors[level];
+                writer.write("Level " + level + "\n");
+                char[] row = new char[floor.getWidth()];
+                for (int z = 0; z < floor.getHeight(); z++) {
+                    for (int x = 0; x < floor.getWidth(); x++) {
+                        row[x] = ASCII_TILES[floor.getTileCode(x, z)];
+                    }
+                    writer.write(row);
+                    writer.write('\n');
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the levels one below the other, one pixel per room and a black line between levels.
+     */
+    private static void writePng(Path file, MazeFloor[] floors) throws IOException {
+        if (floors.length < 2) {
+            return;
+        }
+        int width = floors[1].getWidth();
+        int height = floors[1].getHeight();
+        BufferedImage image = new BufferedImage(width, (floors.length - 1) * (height + 1), BufferedImage.TYPE_INT_RGB);
+        for (int level = 1; level < floors.length; level++) {
+            int top = (level - 1) * (height + 1);
+            for (int z = 0; z < height; z++) {
+                for (int x = 0; x < width; x++) {
+                    image.setRGB(x, top + z, PNG_TILES[floors[level].getTileCode(x, z)]);
+                }
+            }
+        }
+        ImageIO.write(image, "png", file.toFile());
+    }
+}
@@ -21,10 +21,38 @@ import org.terasology.math.geom.Vector3i;
  * Created by john on 10/18/15.
  */
 public abstract class MazeTile {
+    // Tile codes as stored in a MazeFloor. Each MazeInfo keeps one (shared) tile instance per code.
+    public static final byte SOLID = 0;
+    public static final byte AIR = 1;
+    public static final byte UP_STAIRS = 2;
+    public static final byte DOWN_STAIRS = 3;
+    public static final byte THROUGH_STAIRS = 4;
+    // Solid rooms next to an open one; they are not carved, but can be built from a different material.
+    public static final byte WALL = 5;
+    public static final int TILE_TYPE_COUNT = 6;
+
+    public static boolean isOpen(byte code)
+    {
+        return code != SOLID && code != WALL;
+    }
+
     public MazeTile(MazeInfo maze_info_input)
     {
         maze_info = maze_info_input;
     }
     protected MazeInfo maze_info;
-    public abstract boolean containsRelativePosition(Vector3i relative_position);
+    public boolean containsRelativePosition(Vector3i relative_position)
+    {
+        return containsRelativePosition(relative_position.x(), relative_position.y(), relative_position.z());
+    }
+    public abstract boolean containsRelativePosition(int x, int y, int z);
+
+    /**
+     * @return the MazePalette material of the given block of the room.
+     */
+    public byte getMaterial(int x, int y, int z)
+    {
+        // Whatever is not carved out of an open room is the floor below it
+        return containsRelativePosition(x, y, z) ? MazePalette.CORRIDOR : MazePalette.FLOOR;
+    }
 }
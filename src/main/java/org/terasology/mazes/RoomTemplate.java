@@ -17,41 +17,120 @@ package org.terasology.mazes;
 
 import org.terasology.math.geom.Vector3i;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by john on 10/25/15.
  */
 public abstract class RoomTemplate extends MazeTile {
+    // Compiled templates, keyed by template class and room geometry.
+    // Each entry holds the room mask followed by the stair mask.
+    private static final ConcurrentMap<List<Object>, long[][]> COMPILED_TEMPLATES = new ConcurrentHashMap<>();
+
+    // One bit per block of the room, set where the room is open. See getBitIndex for the layout.
+    private final long[] room_mask;
+    // Same layout, set for the solid steps of the staircase.
+    private final long[] stair_mask;
+
     public RoomTemplate(MazeInfo maze_info_input)
     {
         super(maze_info_input);
+        // All templates of one type and geometry are identical, so the staircase is only traced once.
+        // Subclasses must not rely on their own fields in traceStairs/isOpen, as those run before they are set.
+        List<Object> key = Arrays.asList(getClass(), maze_info.room_diameter, maze_info.room_height,
+                maze_info.floor_thickness);
+        long[][] masks = COMPILED_TEMPLATES.computeIfAbsent(key, k -> compile());
+        room_mask = masks[0];
+        stair_mask = masks[1];
+    }
+    public boolean containsRelativePosition(int x, int y, int z) {
+        if (!insideRoom(x, y, z))
+        {
+            // Only happens above the entrance, where the top of a room is cut off.
+            return isOpen(x, y, z, false);
+        }
+        int bit = getBitIndex(x, y, z);
+        return (room_mask[bit >>> 6] & (1L << bit)) != 0;
     }
-    public boolean containsRelativePosition(Vector3i position) {
-        // Otherwise, we use a hash map to create and use a stair case block.
-        if (room_blocks.containsKey(position))
+    public byte getMaterial(int x, int y, int z) {
+        if (!insideRoom(x, y, z))
+        {
+            return super.getMaterial(x, y, z);
+        }
+        int bit = getBitIndex(x, y, z);
+        if ((room_mask[bit >>> 6] & (1L << bit)) != 0)
         {
-            return room_blocks.get(position);
+            return MazePalette.CORRIDOR;
         }
-        else
+        return (stair_mask[bit >>> 6] & (1L << bit)) != 0 ? MazePalette.STAIR : MazePalette.FLOOR;
+    }
+
+    /**
+     * Adds every block of the staircase to stair_blocks.
+     */
+    protected abstract void traceStairs(Set<Vector3i> stair_blocks);
+
+    /**
+     * Decides whether a block of the room is open, given whether it is part of the staircase.
+     */
+    protected boolean isOpen(int x, int y, int z, boolean stair_block) {
+        // Absence from the staircase indicates an air block
+        return !stair_block;
+    }
+
+    private long[][] compile() {
+        Set<Vector3i> stair_blocks = new HashSet<>();
+        traceStairs(stair_blocks);
+        int room_levels = maze_info.room_height + maze_info.floor_thickness;
+        int words = (maze_info.room_diameter * maze_info.room_diameter * room_levels + 63) / 64;
+        long[] mask = new long[words];
+        long[] stairs = new long[words];
+        for (int y = 0; y < room_levels; y++)
         {
-            // Absence from the map indicates an air block
-            return true;
+            for (int z = 0; z < maze_info.room_diameter; z++)
+            {
+                for (int x = 0; x < maze_info.room_diameter; x++)
+                {
+                    boolean stair_block = stair_blocks.contains(new Vector3i(x, y, z));
+                    int bit = getBitIndex(x, y, z);
+                    if (isOpen(x, y, z, stair_block))
+                    {
+                        mask[bit >>> 6] |= 1L << bit;
+                    }
+                    else if (stair_block)
+                    {
+                        stairs[bit >>> 6] |= 1L << bit;
+                    }
+                }
+            }
         }
+        return new long[][] {mask, stairs};
+    }
+
+    private int getBitIndex(int x, int y, int z) {
+        return x + maze_info.room_diameter * (z + maze_info.room_diameter * y);
     }
 
     protected boolean insideRoom(Vector3i local_position) {
+        return insideRoom(local_position.x(), local_position.y(), local_position.z());
+    }
+
+    protected boolean insideRoom(int x, int y, int z) {
         return (
-                local_position.x() >= 0 &&
-                        local_position.y() >= 0 &&
-                        local_position.z() >= 0 &&
-                        local_position.x() < maze_info.room_diameter &&
-                        local_position.y() < maze_info.room_height + maze_info.floor_thickness &&
-                        local_position.z() < maze_info.room_diameter
+                x >= 0 &&
+                        y >= 0 &&
+                        z >= 0 &&
+                        x < maze_info.room_diameter &&
+                        y < maze_info.room_height + maze_info.floor_thickness &&
+                        z < maze_info.room_diameter
         );
     }
 
-    protected HashMap<Vector3i,Boolean> room_blocks = new HashMap<>();
     protected void spiralDown(Vector3i focus, Vector3i direction) {
         focus.add(direction);
         if (!insideRoom(focus)) {
@@ -15,9 +15,6 @@
  */
 package org.terasology.mazes;
 
-import org.terasology.math.geom.Vector3i;
-import org.terasology.world.block.Block;
-
 /**
  * Created by john on 10/18/15.
  */
@@ -25,8 +22,12 @@ public class SolidTile extends MazeTile {
     public SolidTile(MazeInfo maze_info_input) {
         super(maze_info_input);
     }
-    public boolean containsRelativePosition(Vector3i relative_position)
+    public boolean containsRelativePosition(int x, int y, int z)
     {
         return false;
     }
+    public byte getMaterial(int x, int y, int z)
+    {
+        return MazePalette.NONE;
+    }
 }
@@ -17,12 +17,16 @@ package org.terasology.mazes;
 
 import org.terasology.math.geom.Vector3i;
 
+import java.util.Set;
+
 /**
  * Created by john on 10/25/15.
  */
 public class ThroughStairs extends RoomTemplate {
-    public ThroughStairs(MazeInfo maze_info_input, Vector3i global_position) {
+    public ThroughStairs(MazeInfo maze_info_input) {
         super(maze_info_input);
+    }
+    protected void traceStairs(Set<Vector3i> stair_blocks) {
         // Make it so that stairs connect well between y-levels
         // (The initialization values here are ignored, as they are reset by getSpiralOrigin)
         Vector3i focus = new Vector3i(0,1,0);
@@ -30,7 +34,7 @@ public class ThroughStairs extends RoomTemplate {
 
         // Spiral clockwise from the lower right hand corner, going down one block per level
         while (focus.y() < maze_info.room_height + maze_info.floor_thickness) {
-            room_blocks.put(new Vector3i(focus), false);
+            stair_blocks.add(new Vector3i(focus));
             spiralDown(focus,direction);
         }
     }
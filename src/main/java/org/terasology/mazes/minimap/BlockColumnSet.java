@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.terasology.math.ChunkMath;
+import org.terasology.math.geom.ImmutableVector2i;
+import org.terasology.world.chunks.ChunkConstants;
+
+/**
+ * A set of block columns (x, z), stored as one bit per column grouped by chunk column, so that collecting thousands
+ * of changed blocks costs a bit each and yields every column once. Chunk columns are visited in the order they were
+ * first added.
+ */
+public class BlockColumnSet {
+
+    public interface ColumnConsumer {
+        void accept(int x, int z);
+    }
+
+    private final Map<ImmutableVector2i, BitSet> columns = new LinkedHashMap<>();
+    private int size;
+    // Bulk changes tend to stay within a chunk column, so the last one is looked up without allocating a key
+    private int lastChunkX;
+    private int lastChunkZ;
+    private BitSet lastColumns;
+
+    /**
+     * @return true if the column was not in the set yet
+     */
+    public boolean add(int x, int z) {
+        int chunkX = ChunkMath.calcChunkPosX(x);
+        int chunkZ = ChunkMath.calcChunkPosZ(z);
+        if (lastColumns == null || chunkX != lastChunkX || chunkZ != lastChunkZ) {
+            ImmutableVector2i chunkColumn = new ImmutableVector2i(chunkX, chunkZ);
+            lastColumns = columns.get(chunkColumn);
+            if (lastColumns == null) {
+                lastColumns = new BitSet(ChunkConstants.SIZE_X * ChunkConstants.SIZE_Z);
+                columns.put(chunkColumn, lastColumns);
+            }
+            lastChunkX = chunkX;
+            lastChunkZ = chunkZ;
+        }
+        int bit = getBit(x, z);
+        if (lastColumns.get(bit)) {
+            return false;
+        }
+        lastColumns.set(bit);
+        size++;
+        return true;
+    }
+
+    public boolean contains(int x, int z) {
+        BitSet bits = columns.get(new ImmutableVector2i(ChunkMath.calcChunkPosX(x), ChunkMath.calcChunkPosZ(z)));
+        return bits != null && bits.get(getBit(x, z));
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of columns in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of chunk columns holding the columns of the set
+     */
+    public int getChunkColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     * Hands every column to the consumer once, chunk column by chunk column.
+     */
+    public void forEach(ColumnConsumer consumer) {
+        for (Map.Entry<ImmutableVector2i, BitSet> entry : columns.entrySet()) {
+            int chunkX = entry.getKey().getX() * ChunkConstants.SIZE_X;
+            int chunkZ = entry.getKey().getY() * ChunkConstants.SIZE_Z;
+            BitSet bits = entry.getValue();
+            for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                consumer.accept(chunkX + bit % ChunkConstants.SIZE_X, chunkZ + bit / ChunkConstants.SIZE_X);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #forEach}, but stops after budget columns, and removes the columns handed out from the set.
+     *
+     * @return the number of columns that are left
+     */
+    public int drain(int budget, ColumnConsumer consumer) {
+        Iterator<Map.Entry<ImmutableVector2i, BitSet>> iterator = columns.entrySet().iterator();
+        while (budget > 0 && iterator.hasNext()) {
+            Map.Entry<ImmutableVector2i, BitSet> entry = iterator.next();
+            int chunkX = entry.getKey().getX() * ChunkConstants.SIZE_X;
+            int chunkZ = entry.getKey().getY() * ChunkConstants.SIZE_Z;
+            BitSet bits = entry.getValue();
+            for (int bit = bits.nextSetBit(0); bit >= 0 && budget > 0; bit = bits.nextSetBit(bit + 1)) {
+                bits.clear(bit);
+                size--;
+                budget--;
+                consumer.accept(chunkX + bit % ChunkConstants.SIZE_X, chunkZ + bit / ChunkConstants.SIZE_X);
+            }
+            if (bits.isEmpty()) {
+                iterator.remove();
+                if (bits == lastColumns) {
+                    lastColumns = null;
+                }
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        columns.clear();
+        size = 0;
+        lastColumns = null;
+    }
+
+    private static int getBit(int x, int z) {
+        return ChunkMath.calcBlockPosX(x) + ChunkMath.calcBlockPosZ(z) * ChunkConstants.SIZE_X;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.math.ChunkMath;
+import org.terasology.world.chunks.ChunkConstants;
+
+/**
+ * The block columns of the maze in which blocks have been placed or destroyed, so that the minimap keeps sampling
+ * them from the world rather than the generated layout after the game is reloaded. Lives on the world entity and is
+ * saved with it.
+ * <p>
+ * Columns are stored as one bit each, grouped by chunk column: every chunk column that holds an edited block column
+ * costs SIZE_X * SIZE_Z / 8 bytes.
+ */
+public class EditedMazeColumnsComponent implements Component {
+    private static final int CHUNK_COLUMN_BYTES = ChunkConstants.SIZE_X * ChunkConstants.SIZE_Z / 8;
+
+    // The chunk columns holding edited block columns, as chunk x, chunk z pairs
+    public List<Integer> chunkColumns = new ArrayList<>();
+    // The bits of those chunk columns, in the same order
+    public byte[] columns = new byte[0];
+
+    public boolean isEdited(int x, int z) {
+        int chunkColumn = indexOf(ChunkMath.calcChunkPosX(x), ChunkMath.calcChunkPosZ(z));
+        if (chunkColumn < 0) {
+            return false;
+        }
+        int bit = getBit(x, z);
+        return (columns[chunkColumn * CHUNK_COLUMN_BYTES + (bit >> 3)] & (1 << (bit & 7))) != 0;
+    }
+
+    /**
+     * @return true if the column had not been edited before
+     */
+    public boolean markEdited(int x, int z) {
+        int chunkX = ChunkMath.calcChunkPosX(x);
+        int chunkZ = ChunkMath.calcChunkPosZ(z);
+        int chunkColumn = indexOf(chunkX, chunkZ);
+        if (chunkColumn < 0) {
+            chunkColumn = chunkColumns.size() / 2;
+            chunkColumns.add(chunkX);
+            chunkColumns.add(chunkZ);
+            columns = Arrays.copyOf(columns, (chunkColumn + 1) * CHUNK_COLUMN_BYTES);
+        }
+        int bit = getBit(x, z);
+        int index = chunkColumn * CHUNK_COLUMN_BYTES + (bit >> 3);
+        if ((columns[index] & (1 << (bit & 7))) != 0) {
+            return false;
+        }
+        columns[index] |= 1 << (bit & 7);
+        return true;
+    }
+
+    /**
+     * Hands every edited column to the consumer once, chunk column by chunk column.
+     */
+    public void forEach(BlockColumnSet.ColumnConsumer consumer) {
+        for (int chunkColumn = 0; chunkColumn < chunkColumns.size() / 2; chunkColumn++) {
+            int chunkX = chunkColumns.get(chunkColumn * 2) * ChunkConstants.SIZE_X;
+            int chunkZ = chunkColumns.get(chunkColumn * 2 + 1) * ChunkConstants.SIZE_Z;
+            for (int bit = 0; bit < CHUNK_COLUMN_BYTES * 8; bit++) {
+                if ((columns[chunkColumn * CHUNK_COLUMN_BYTES + (bit >> 3)] & (1 << (bit & 7))) != 0) {
+                    consumer.accept(chunkX + bit % ChunkConstants.SIZE_X, chunkZ + bit / ChunkConstants.SIZE_X);
+                }
+            }
+        }
+    }
+
+    private int indexOf(int chunkX, int chunkZ) {
+        // Edits cluster in a few chunk columns, so a linear search is all it takes
+        for (int i = 0; i + 1 < chunkColumns.size(); i += 2) {
+            if (chunkColumns.get(i) == chunkX && chunkColumns.get(i + 1) == chunkZ) {
+                return i / 2;
+            }
+        }
+        return -1;
+    }
+
+    private static int getBit(int x, int z) {
+        return ChunkMath.calcBlockPosX(x) + ChunkMath.calcBlockPosZ(z) * ChunkConstants.SIZE_X;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap;
+
+import java.util.Arrays;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * The maze rooms a player has seen, one bit per room and level, so that the minimap can show only what has been
+ * explored. Lives on the character entity and is saved with it.
+ * <p>
+ * The levels of the dungeon proper are stored one after another from level 1 on, each one row of rooms after the
+ * other. Storage grows as deeper levels are explored, so an 80x25 level costs 250 bytes once it has been visited.
+ * Every level of the entrance shaft looks the same, so they share a single record of their own.
+ */
+public class ExploredMazeComponent implements Component {
+    public byte[] explored = new byte[0];
+    public byte[] shaftExplored = new byte[0];
+    // The size of a level, in rooms
+    public int levelWidth;
+    public int levelHeight;
+
+    /**
+     * Forgets everything if the explored maze does not have the given size, e.g. because the maze settings changed.
+     */
+    public void setLevelSize(int width, int height) {
+        if (width != levelWidth || height != levelHeight) {
+            explored = new byte[0];
+            shaftExplored = new byte[0];
+            levelWidth = width;
+            levelHeight = height;
+        }
+    }
+
+    public boolean isExplored(int level, int x, int z) {
+        if (x < 0 || z < 0 || x >= levelWidth || z >= levelHeight) {
+            return false;
+        }
+        byte[] bits = level <= 0 ? shaftExplored : explored;
+        int bit = getBit(level, x, z);
+        return bit >> 3 < bits.length && (bits[bit >> 3] & (1 << (bit & 7))) != 0;
+    }
+
+    /**
+     * @return true if the room had not been explored before
+     */
+    public boolean markExplored(int level, int x, int z) {
+        if (x < 0 || z < 0 || x >= levelWidth || z >= levelHeight || isExplored(level, x, z)) {
+            return false;
+        }
+        int bit = getBit(level, x, z);
+        if (level <= 0) {
+            if (shaftExplored.length == 0) {
+                shaftExplored = new byte[getLevelBytes()];
+            }
+            shaftExplored[bit >> 3] |= 1 << (bit & 7);
+        } else {
+            if (explored.length < level * getLevelBytes()) {
+                explored = Arrays.copyOf(explored, level * getLevelBytes());
+            }
+            explored[bit >> 3] |= 1 << (bit & 7);
+        }
+        return true;
+    }
+
+    private int getLevelBytes() {
+        return (levelWidth * levelHeight + 7) / 8;
+    }
+
+    private int getBit(int level, int x, int z) {
+        // The shaft has a single record
+        return (Math.max(level, 1) - 1) * getLevelBytes() * 8 + x + z * levelWidth;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap.rendering.nui.layers;
+
+import java.util.Arrays;
+
+import org.terasology.rendering.nui.Color;
+
+/**
+ * The colours of the minimap cells, kept from frame to frame.
+ * <p>
+ * Cell (column, row) shows the block at (x + offset of the column, y, z + offset of the row), where (x, y, z) is the
+ * origin, usually the player. When the origin moves within the same height and zoom, cells are shifted over to where
+ * their block is now shown and only the newly exposed ones are sampled again. A height or zoom change resamples
+ * everything.
+ * <p>
+ * Cells the sampler cannot answer yet are kept pending rather than asked for on every update, until
+ * {@link #retryPending} or {@link #invalidate} says that their block may have become known.
+ * <p>
+ * An update may be given a budget, so that a zoom or height change spreads the cost of sampling every cell over a
+ * few frames. Cells left over are still unknown and are sampled by the next updates.
+ */
+class MinimapCellBuffer {
+
+    // Marks pending cells; compared by identity and never handed out
+    private static final Color PENDING = new Color(0);
+
+    /**
+     * Supplies the colour of a world position, or null if it is not known yet (e.g. its chunk is not loaded).
+     * Unknown cells are pending until they are retried.
+     */
+    interface Sampler {
+        Color sample(int x, int y, int z);
+
+        /**
+         * Samples a cell that spans the given number of blocks in x and z. By default only its center block is
+         * looked at.
+         */
+        default Color sample(int x, int y, int z, float blocksPerCell) {
+            return sample(x, y, z);
+        }
+
+        /**
+         * @return whether the cell at the given position can be sampled without looking at the world, in which case it
+         * does not count against the budget of an update
+         */
+        default boolean isCheap(int x, int y, int z) {
+            return false;
+        }
+    }
+
+    private final int columns;
+    private final int rows;
+    private Color[] colors;
+    private Color[] shifted;
+    private final int[] offsetX;
+    private final int[] offsetZ;
+    private final int[] sourceColumn;
+    private final int[] sourceRow;
+
+    // Bumped whenever a cell changes, so that anything derived from the cells knows when to rebuild
+    private int version;
+    private boolean valid;
+    private float zoom;
+    private int originX;
+    private int originY;
+    private int originZ;
+
+    MinimapCellBuffer(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+        this.colors = new Color[columns * rows];
+        this.shifted = new Color[columns * rows];
+        this.offsetX = new int[columns];
+        this.offsetZ = new int[rows];
+        this.sourceColumn = new int[columns];
+        this.sourceRow = new int[rows];
+    }
+
+    /**
+     * Moves the buffer to the given origin and zoom and samples every cell that is not known yet.
+     *
+     * @param zoom the number of blocks per cell
+     */
+    void update(Sampler sampler, int x, int y, int z, float zoom) {
+        update(sampler, x, y, z, zoom, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Moves the buffer to the given origin and zoom and samples the cells that are not known yet, but at most the
+     * given number of those that are not cheap to sample.
+     *
+     * @param zoom the number of blocks per cell
+     */
+    void update(Sampler sampler, int x, int y, int z, float zoom, int budget) {
+        if (!valid || zoom != this.zoom || y != originY) {
+            if (!valid || zoom != this.zoom) {
+                computeOffsets(offsetX, zoom);
+                computeOffsets(offsetZ, zoom);
+                this.zoom = zoom;
+            }
+            Arrays.fill(colors, null);
+            valid = true;
+            version++;
+        } else if (x != originX || z != originZ) {
+            shift(x - originX, z - originZ);
+        }
+        originX = x;
+        originY = y;
+        originZ = z;
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int index = column + row * columns;
+                if (colors[index] == null) {
+                    int cellX = x + offsetX[column];
+                    int cellZ = z + offsetZ[row];
+                    if (!sampler.isCheap(cellX, y, cellZ)) {
+                        if (budget == 0) {
+                            continue;
+                        }
+                        budget--;
+                    }
+                    Color color = sampler.sample(cellX, y, cellZ, zoom);
+                    if (color != null) {
+                        colors[index] = color;
+                        version++;
+                    } else {
+                        colors[index] = PENDING;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the cells showing the given block column, so that they are sampled again on the next update.
+     */
+    void invalidate(int x, int z) {
+        if (!valid) {
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            if (originZ + offsetZ[row] != z) {
+                continue;
+            }
+            for (int column = 0; column < columns; column++) {
+                if (originX + offsetX[column] == x && colors[column + row * columns] != null) {
+                    colors[column + row * columns] = null;
+                    version++;
+                }
+            }
+        }
+    }
+
+    void invalidateAll() {
+        valid = false;
+    }
+
+    /**
+     * Asks the sampler again for the pending cells showing blocks within the given block columns (inclusive), e.g.
+     * those of a chunk that has just been loaded.
+     */
+    void retryPending(int minX, int minZ, int maxX, int maxZ) {
+        if (!valid) {
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            int z = originZ + offsetZ[row];
+            if (z < minZ || z > maxZ) {
+                continue;
+            }
+            for (int column = 0; column < columns; column++) {
+                int x = originX + offsetX[column];
+                if (x >= minX && x <= maxX && colors[column + row * columns] == PENDING) {
+                    colors[column + row * columns] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks the sampler again for every pending cell.
+     */
+    void retryPending() {
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i] == PENDING) {
+                colors[i] = null;
+            }
+        }
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the colour of the cell, or null if it could not be sampled.
+     */
+    Color getColor(int column, int row) {
+        return known(colors[column + row * columns]);
+    }
+
+    /**
+     * @return the colour of the cell showing the given block, or null if no cell shows it or it could not be sampled.
+     */
+    Color findColor(int x, int y, int z) {
+        if (!valid || y != originY) {
+            return null;
+        }
+        int column = Arrays.binarySearch(offsetX, x - originX);
+        int row = Arrays.binarySearch(offsetZ, z - originZ);
+        if (column < 0 || row < 0) {
+            return null;
+        }
+        return known(colors[column + row * columns]);
+    }
+
+    /**
+     * Makes this buffer a copy of the given one, which must have the same size.
+     */
+    void copyFrom(MinimapCellBuffer other) {
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.offsetX, 0, offsetX, 0, columns);
+        System.arraycopy(other.offsetZ, 0, offsetZ, 0, rows);
+        valid = other.valid;
+        zoom = other.zoom;
+        originX = other.originX;
+        originY = other.originY;
+        originZ = other.originZ;
+        version++;
+    }
+
+    private static Color known(Color color) {
+        return color == PENDING ? null : color;
+    }
+
+    private void computeOffsets(int[] offsets, float blocksPerCell) {
+        float center = offsets.length / 2f;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = Math.round(blocksPerCell * (i - center));
+        }
+    }
+
+    private void shift(int dx, int dz) {
+        findSources(offsetX, dx, sourceColumn);
+        findSources(offsetZ, dz, sourceRow);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int source = sourceColumn[column] < 0 || sourceRow[row] < 0
+                        ? -1 : sourceColumn[column] + sourceRow[row] * columns;
+                shifted[column + row * columns] = source < 0 ? null : colors[source];
+            }
+        }
+        Color[] previous = colors;
+        colors = shifted;
+        shifted = previous;
+        version++;
+    }
+
+    /**
+     * For every cell, finds the cell that showed its new block before the origin moved by delta, or -1 if there is
+     * none. Both cells are on the same axis; the offsets grow monotonically, so one pass suffices.
+     */
+    private static void findSources(int[] offsets, int delta, int[] sources) {
+        int source = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            int wanted = offsets[i] + delta;
+            while (source < offsets.length && offsets[source] < wanted) {
+                source++;
+            }
+            sources[i] = source < offsets.length && offsets[source] == wanted ? source : -1;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap.rendering.nui.layers;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.terasology.mazes.MazeInfo;
+import org.terasology.mazes.minimap.ExploredMazeComponent;
+import org.terasology.rendering.nui.Canvas;
+import org.terasology.rendering.nui.Color;
+
+/**
+ * Samples the minimap cells and merges them into rectangles on a background thread, so that drawing the minimap only
+ * means drawing the latest finished frame.
+ * <p>
+ * Frames are double buffered: the worker builds the back frame while the render thread draws the front one, then
+ * swaps them. A new composition is only started from the render thread once the previous one has finished, so the
+ * worker never touches the frame that is being drawn. Everything but the front frame belongs to the worker thread;
+ * the render thread hands over changes through {@link Request}s and tasks.
+ * <p>
+ * The world is never read from the worker thread: the engine does not promise that block lookups are safe off the
+ * main thread. Instead the render thread samples the world into a cell buffer of its own, and every composition works
+ * on a copy of it taken when the composition is started. The maze layout is immutable and is read directly, so the
+ * render thread only samples the cells the layout does not cover and the edited columns of the maze.
+ */
+class MinimapComposer {
+
+    // One daemon thread is shared by all minimaps; it never keeps the game from exiting
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Minimap composition");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Everything a composition needs to know that happened on the render thread since the last one.
+     */
+    static class Request {
+        private int x;
+        private int y;
+        private int z;
+        private float zoom;
+        private boolean refreshAll;
+        private int[] dirtyColumns = new int[16];
+        private int dirtyCount;
+        private int[] editedColumns = new int[16];
+        private int editedCount;
+        private boolean exploredChanged;
+        private boolean exploredReplaced;
+        private ExploredMazeComponent explored;
+
+        void setOrigin(int originX, int originY, int originZ, float blocksPerCell) {
+            this.x = originX;
+            this.y = originY;
+            this.z = originZ;
+            this.zoom = blocksPerCell;
+        }
+
+        void refreshAll() {
+            refreshAll = true;
+        }
+
+        /**
+         * Resamples the given block column.
+         */
+        void addDirtyColumn(int columnX, int columnZ) {
+            if (dirtyCount * 2 == dirtyColumns.length) {
+                dirtyColumns = Arrays.copyOf(dirtyColumns, dirtyColumns.length * 2);
+            }
+            dirtyColumns[dirtyCount * 2] = columnX;
+            dirtyColumns[dirtyCount * 2 + 1] = columnZ;
+            dirtyCount++;
+        }
+
+        /**
+         * Samples the given block column from the world from now on (see {@link MinimapLayoutSampler#markEdited}).
+         */
+        void addEditedColumn(int columnX, int columnZ) {
+            if (editedCount * 2 == editedColumns.length) {
+                editedColumns = Arrays.copyOf(editedColumns, editedColumns.length * 2);
+            }
+            editedColumns[editedCount * 2] = columnX;
+            editedColumns[editedCount * 2 + 1] = columnZ;
+            editedCount++;
+        }
+
+        /**
+         * Hands over the explored rooms. The component must not be modified afterwards, so pass a copy.
+         *
+         * @param replaced true if the rooms do not just add to the previous ones (e.g. another player), so that
+         *                 every cell needs to be sampled again rather than those of the newly explored rooms
+         */
+        void setExplored(ExploredMazeComponent snapshot, boolean replaced) {
+            explored = snapshot;
+            exploredChanged = true;
+            exploredReplaced |= replaced;
+        }
+    }
+
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile MinimapRectangles front;
+
+    // Owned by the worker thread
+    private MinimapRectangles back;
+    private final MinimapCellBuffer cellBuffer;
+    // The world as sampled by the render thread, copied over at the start of every composition
+    private final MinimapCellBuffer worldCells;
+    private final MinimapCellBuffer.Sampler worldSampler;
+    private MinimapLayoutSampler layoutSampler;
+    private boolean composed;
+    private int composedVersion;
+
+    MinimapComposer(int columns, int rows, int cellWidth, int cellHeight, Color unknownColor) {
+        this.cellBuffer = new MinimapCellBuffer(columns, rows);
+        this.worldCells = new MinimapCellBuffer(columns, rows);
+        this.worldSampler = worldCells::findColor;
+        // Nothing is drawn until the first frame has been composed
+        this.front = new MinimapRectangles(cellWidth, cellHeight, unknownColor);
+        this.back = new MinimapRectangles(cellWidth, cellHeight, unknownColor);
+    }
+
+    /**
+     * Samples the maze from the layout of the given maze from now on, or only the world if it is null.
+     */
+    void setMazeInfo(MazeInfo mazeInfo) {
+        MinimapLayoutSampler sampler = mazeInfo != null ? new MinimapLayoutSampler(mazeInfo, worldSampler) : null;
+        WORKER.execute(() -> {
+            layoutSampler = sampler;
+            cellBuffer.invalidateAll();
+        });
+    }
+
+    void invalidateAll() {
+        WORKER.execute(cellBuffer::invalidateAll);
+    }
+
+    /**
+     * @return true if the previous composition has not finished yet; new requests are not accepted until it has.
+     */
+    boolean isBusy() {
+        return busy.get();
+    }
+
+    /**
+     * Starts composing a frame in the background, unless the previous one is still being composed.
+     *
+     * @param world the world around the request's origin, as sampled on the render thread. It is copied before this
+     *              returns, so it may be updated again right away.
+     * @return false if the request was not accepted, in which case it can be kept and extended for the next frame
+     */
+    boolean compose(Request request, MinimapCellBuffer world) {
+        if (!busy.compareAndSet(false, true)) {
+            return false;
+        }
+        // No composition is running, so nothing reads the copy; starting the task publishes it to the worker
+        worldCells.copyFrom(world);
+        WORKER.execute(() -> {
+            try {
+                run(request);
+            } finally {
+                busy.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Draws the latest finished frame.
+     */
+    void draw(Canvas canvas) {
+        front.draw(canvas);
+    }
+
+    private void run(Request request) {
+        // Cells the world copy did not know last time may be known by now; looking them up costs next to nothing
+        cellBuffer.retryPending();
+        if (layoutSampler != null) {
+            for (int i = 0; i < request.editedCount; i++) {
+                layoutSampler.markEdited(request.editedColumns[i * 2], request.editedColumns[i * 2 + 1]);
+            }
+            if (request.exploredChanged) {
+                layoutSampler.setExplored(request.explored);
+            }
+            if (request.exploredReplaced) {
+                cellBuffer.invalidateAll();
+            }
+        }
+        if (request.refreshAll) {
+            cellBuffer.invalidateAll();
+        }
+        for (int i = 0; i < request.dirtyCount; i++) {
+            cellBuffer.invalidate(request.dirtyColumns[i * 2], request.dirtyColumns[i * 2 + 1]);
+        }
+        cellBuffer.update(layoutSampler != null ? layoutSampler : worldSampler,
+                request.x, request.y, request.z, request.zoom);
+
+        if (!composed || cellBuffer.getVersion() != composedVersion) {
+            composed = true;
+            composedVersion = cellBuffer.getVersion();
+            back.rebuild(cellBuffer);
+            MinimapRectangles previous = front;
+            front = back;
+            back = previous;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap.rendering.nui.layers;
+
+import org.terasology.mazes.minimap.BlockColumnSet;
+
+/**
+ * The block columns whose minimap cells need to be sampled again.
+ * <p>
+ * Chunk columns are drained in the order they were first marked. The queue is bounded: once too many chunk columns
+ * are waiting it stops tracking them individually and reports an overflow instead, after which the whole minimap
+ * should be refreshed.
+ */
+class MinimapDirtyQueue {
+
+    private static final int MAX_CHUNK_COLUMNS = 256;
+
+    private final BlockColumnSet dirtyColumns = new BlockColumnSet();
+    private boolean overflowed;
+
+    /**
+     * Marks the block column at the given world position.
+     */
+    void add(int x, int z) {
+        if (overflowed) {
+            return;
+        }
+        dirtyColumns.add(x, z);
+        if (dirtyColumns.getChunkColumnCount() > MAX_CHUNK_COLUMNS) {
+            overflowed = true;
+            clear();
+        }
+    }
+
+    /**
+     * Hands up to budget marked columns to the consumer, oldest chunk column first, and unmarks them.
+     *
+     * @return the number of columns that are still marked
+     */
+    int drain(int budget, BlockColumnSet.ColumnConsumer consumer) {
+        return dirtyColumns.drain(budget, consumer);
+    }
+
+    /**
+     * @return true if columns were dropped since the last call to {@link #clearOverflow()}.
+     */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    void clearOverflow() {
+        overflowed = false;
+    }
+
+    void clear() {
+        dirtyColumns.clear();
+    }
+}
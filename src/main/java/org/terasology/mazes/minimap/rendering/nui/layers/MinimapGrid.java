@@ -22,15 +22,16 @@ import org.terasology.utilities.Assets;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.Border;
-import org.terasology.math.ChunkMath;
 import org.terasology.math.TeraMath;
-import org.terasology.math.geom.BaseVector2i;
 import org.terasology.math.geom.ImmutableVector2i;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Rect2i;
 import org.terasology.math.geom.Vector2i;
 import org.terasology.math.geom.Vector3f;
-import org.terasology.math.geom.Vector3i;
+import org.terasology.mazes.MazeInfo;
+import org.terasology.mazes.minimap.BlockColumnSet;
+import org.terasology.mazes.minimap.EditedMazeColumnsComponent;
+import org.terasology.mazes.minimap.ExploredMazeComponent;
 import org.terasology.rendering.assets.material.Material;
 import org.terasology.rendering.assets.mesh.Mesh;
 import org.terasology.rendering.assets.texture.Texture;
@@ -42,21 +43,83 @@ import org.terasology.rendering.nui.databinding.DefaultBinding;
 import org.terasology.rendering.nui.databinding.ReadOnlyBinding;
 import org.terasology.world.WorldProvider;
 import org.terasology.world.block.Block;
+import org.terasology.world.chunks.ChunkConstants;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
 
 /**
  * @author mkienenb
  */
 public class MinimapGrid extends CoreWidget {
     private static final ImmutableVector2i CELL_SIZE = new ImmutableVector2i(4, 4);
+    private static final int COLUMNS = 320 / 4;
+    private static final int ROWS = 200 / 4;
+    // Changed block columns refreshed per frame; the rest wait for the next one
+    private static final int DIRTY_COLUMNS_PER_FRAME = 256;
+    // Cells sampled from the world per frame, e.g. after a zoom or height change; the rest wait for the next one
+    private static final int WORLD_CELLS_PER_FRAME = 512;
     private Binding<EntityRef> targetEntityBinding = new DefaultBinding<>(EntityRef.NULL);
     private Binding<Integer> zoomFactorBinding = new DefaultBinding<>(0);
 
-    private Multimap<BaseVector2i, Vector3i> dirtyBlocks = LinkedHashMultimap.create();
+    private final MinimapDirtyQueue dirtyColumns = new MinimapDirtyQueue();
 
     private WorldProvider worldProvider;
+    private MazeInfo mazeInfo;
+    private EditedMazeColumnsComponent editedColumns;
+    // The edited columns of the maze, which the composer takes from the world rather than the layout
+    private final BlockColumnSet editedMazeColumns = new BlockColumnSet();
+
+    // The world around the player, sampled on this thread; blocks of unloaded chunks are left unknown and drawn grey
+    // until they can be sampled. Cells the composer draws from the maze layout are not looked up at all.
+    private final MinimapCellBuffer worldCells = new MinimapCellBuffer(COLUMNS, ROWS);
+    // Samples the maze and merges the cells in the background
+    private final MinimapComposer composer =
+            new MinimapComposer(COLUMNS, ROWS, CELL_SIZE.getX(), CELL_SIZE.getY(), Color.GREY);
+    // Zoomed out, a cell shows what most of four blocks spread over it are, like the pyramid of the maze layout does,
+    // so that thin features neither vanish nor flicker as the view moves
+    private final MinimapCellBuffer.Sampler worldSampler = new MinimapCellBuffer.Sampler() {
+        @Override
+        public boolean isCheap(int x, int y, int z) {
+            MazeInfo mazeInfo = MinimapGrid.this.mazeInfo;
+            return mazeInfo != null && MinimapLayoutSampler.isCoveredByLayout(mazeInfo, x, y, z)
+                    && !editedMazeColumns.contains(x, z);
+        }
+
+        @Override
+        public Color sample(int x, int y, int z) {
+            return sample(x, y, z, 1);
+        }
+
+        @Override
+        public Color sample(int x, int y, int z, float blocksPerCell) {
+            if (isCheap(x, y, z)) {
+                // Never looked at: the composer draws this cell from the layout
+                return Color.BLACK;
+            }
+            if (MinimapPyramid.getLevel(blocksPerCell) == 0) {
+                return sampleBlock(x, y, z);
+            }
+            // The cell starts at (x, z); take the middle of each of its quarters
+            int[] offsets = {(int) (blocksPerCell / 4), (int) (blocksPerCell * 3 / 4)};
+            int open = 0;
+            for (int dz : offsets) {
+                for (int dx : offsets) {
+                    Color color = sampleBlock(x + dx, y, z + dz);
+                    if (color == null) {
+                        return null;
+                    }
+                    if (color == Color.GREY) {
+                        open++;
+                    }
+                }
+            }
+            // Ties count as open, as in the pyramid
+            return open >= 2 ? Color.GREY : Color.BLACK;
+        }
+    };
+    // What has changed since the last composition was started
+    private MinimapComposer.Request pendingRequest = new MinimapComposer.Request();
+    private ExploredMazeComponent lastExplored;
+    private boolean exploredChanged;
 
     @SuppressWarnings("unused")
 	private IntFunction<Float> brightness;
@@ -76,6 +139,41 @@ public class MinimapGrid extends CoreWidget {
 
     public void setWorldProvider(WorldProvider worldProvider) {
         this.worldProvider = worldProvider;
+        worldCells.invalidateAll();
+        composer.invalidateAll();
+    }
+
+    /**
+     * Draws the maze from its layout, which needs no loaded chunks. Null goes back to sampling the world only.
+     */
+    public void setMazeInfo(MazeInfo mazeInfo) {
+        this.mazeInfo = mazeInfo;
+        composer.setMazeInfo(mazeInfo);
+        // Which cells are drawn from the layout has changed
+        editedMazeColumns.clear();
+        worldCells.invalidateAll();
+        // The new sampler has not seen the explored rooms or the edited columns yet
+        exploredChanged = true;
+        addEditedColumns();
+    }
+
+    /**
+     * Samples the given block columns of the maze from the world rather than the layout, e.g. those edited before the
+     * game was loaded. Columns edited from now on are passed to {@link #updateColumns} as usual.
+     */
+    public void setEditedColumns(EditedMazeColumnsComponent editedColumns) {
+        this.editedColumns = editedColumns;
+        addEditedColumns();
+    }
+
+    private void addEditedColumns() {
+        if (mazeInfo != null && editedColumns != null) {
+            editedColumns.forEach((x, z) -> {
+                editedMazeColumns.add(x, z);
+                pendingRequest.addEditedColumn(x, z);
+            });
+            worldCells.invalidateAll();
+        }
     }
 
     @Override
@@ -83,10 +181,45 @@ public class MinimapGrid extends CoreWidget {
         super.update(delta);
     }
 
-    public void updateLocation(Vector3i worldLocation) {
-        Vector3i chunkPos = ChunkMath.calcChunkPos(worldLocation);
-        Vector3i blockPos = ChunkMath.calcBlockPos(worldLocation);
-        dirtyBlocks.put(new ImmutableVector2i(chunkPos.getX(), chunkPos.getZ()), blockPos);
+    /**
+     * Refreshes the given block columns, e.g. all those changed during a tick.
+     */
+    public void updateColumns(BlockColumnSet columns) {
+        columns.forEach(this::updateColumn);
+    }
+
+    private void updateColumn(int x, int z) {
+        dirtyColumns.add(x, z);
+        if (mazeInfo != null) {
+            editedMazeColumns.add(x, z);
+            pendingRequest.addEditedColumn(x, z);
+        }
+    }
+
+    /**
+     * Samples the cells of the given chunk column again that were waiting for it to be loaded.
+     */
+    public void updateLoadedChunk(int chunkX, int chunkZ) {
+        int minX = chunkX * ChunkConstants.SIZE_X;
+        int minZ = chunkZ * ChunkConstants.SIZE_Z;
+        worldCells.retryPending(minX, minZ, minX + ChunkConstants.SIZE_X - 1, minZ + ChunkConstants.SIZE_Z - 1);
+    }
+
+    /**
+     * Reveals a newly explored room of the maze on the next frames.
+     */
+    public void updateExploredRoom(int roomX, int roomZ) {
+        if (mazeInfo == null) {
+            return;
+        }
+        int minX = mazeInfo.minTileX() + roomX * mazeInfo.room_diameter;
+        int minZ = mazeInfo.minTileZ() + roomZ * mazeInfo.room_diameter;
+        for (int z = minZ; z < minZ + mazeInfo.room_diameter; z++) {
+            for (int x = minX; x < minX + mazeInfo.room_diameter; x++) {
+                dirtyColumns.add(x, z);
+            }
+        }
+        exploredChanged = true;
     }
 
     @Override
@@ -110,19 +243,34 @@ public class MinimapGrid extends CoreWidget {
         int width = getPreferredContentSize().getX();
         int height = getPreferredContentSize().getY();
 
-        // Draw minimap
-        for (int nU = 0; nU < width; nU+= CELL_SIZE.getX())
-        {
-            for (int nV = 0; nV < height; nV += CELL_SIZE.getY())
-            {
-                Rect2i rect = Rect2i.createFromMinAndSize(nU, nV, CELL_SIZE.getX(), CELL_SIZE.getY());
-                int nX = Math.round(worldPosition.x()) + Math.round(fZoom*(nU - width/2)/4);
-                int nY = Math.round(worldPosition.y());
-                int nZ = Math.round(worldPosition.z()) + Math.round(fZoom*(nV - height/2)/4);
-                Vector3i relLocation = new Vector3i(nX, nY, nZ);
-                drawCell(canvas, rect, relLocation); // the y component of relLocation is modified!
+        // Hand what has changed to the composition thread once it is done with the previous frame, then draw the latest
+        // finished frame. Until then, changes keep piling up in the pending request and the dirty queue.
+        if (!composer.isBusy()) {
+            ExploredMazeComponent explored = entity.getComponent(ExploredMazeComponent.class);
+            if (explored != lastExplored || exploredChanged) {
+                pendingRequest.setExplored(copyExplored(explored), explored != lastExplored);
+                lastExplored = explored;
+                exploredChanged = false;
+            }
+            if (dirtyColumns.isOverflowed()) {
+                dirtyColumns.clearOverflow();
+                worldCells.invalidateAll();
+                pendingRequest.refreshAll();
+            }
+            dirtyColumns.drain(DIRTY_COLUMNS_PER_FRAME, (x, z) -> {
+                worldCells.invalidate(x, z);
+                pendingRequest.addDirtyColumn(x, z);
+            });
+            int originX = Math.round(worldPosition.x());
+            int originY = Math.round(worldPosition.y());
+            int originZ = Math.round(worldPosition.z());
+            worldCells.update(worldSampler, originX, originY, originZ, fZoom, WORLD_CELLS_PER_FRAME);
+            pendingRequest.setOrigin(originX, originY, originZ, fZoom);
+            if (composer.compose(pendingRequest, worldCells)) {
+                pendingRequest = new MinimapComposer.Request();
             }
         }
+        composer.draw(canvas);
 
         // draw arrowhead
         Texture arrowhead = Assets.getTexture("MazesOfMenace:arrowhead").get();
@@ -181,14 +329,30 @@ public class MinimapGrid extends CoreWidget {
         zoomFactorBinding = offsetBinding;
     }
 
-    private void drawCell(Canvas canvas, Rect2i rect, Vector3i pos) {
-        Block block = worldProvider.getBlock(pos);
+    private static ExploredMazeComponent copyExplored(ExploredMazeComponent explored) {
+        if (explored == null) {
+            return null;
+        }
+        ExploredMazeComponent copy = new ExploredMazeComponent();
+        copy.explored = explored.explored.clone();
+        copy.shaftExplored = explored.shaftExplored.clone();
+        copy.levelWidth = explored.levelWidth;
+        copy.levelHeight = explored.levelHeight;
+        return copy;
+    }
+
+    private Color sampleBlock(int x, int y, int z) {
+        // Blocks of chunks that are not loaded yet are left pending until the chunk is, see updateLoadedChunk
+        WorldProvider worldProvider = this.worldProvider;
+        if (worldProvider == null || !worldProvider.isBlockRelevant(x, y, z)) {
+            return null;
+        }
+        Block block = worldProvider.getBlock(x, y, z);
         if (block.isTranslucent()) {
-            canvas.drawFilledRectangle(rect,Color.GREY);
+            return Color.GREY;
         } else {
-            canvas.drawFilledRectangle(rect,Color.BLACK);
+            return Color.BLACK;
         }
-
     }
 
 }
@@ -17,7 +17,9 @@ package org.terasology.mazes.minimap.rendering.nui.layers;
 
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.math.TeraMath;
-import org.terasology.math.geom.Vector3i;
+import org.terasology.mazes.MazeInfo;
+import org.terasology.mazes.minimap.BlockColumnSet;
+import org.terasology.mazes.minimap.EditedMazeColumnsComponent;
 import org.terasology.rendering.nui.databinding.ReadOnlyBinding;
 import org.terasology.rendering.nui.layers.hud.CoreHudWidget;
 import org.terasology.rendering.nui.widgets.UISlider;
@@ -62,8 +64,8 @@ public class MinimapHUDElement extends CoreHudWidget {
         minimapZoomSlider.setValue(newValue);
     }
 
-    public void updateLocation(Vector3i worldLocation) {
-        minimapGrid.updateLocation(worldLocation);
+    public void updateColumns(BlockColumnSet columns) {
+        minimapGrid.updateColumns(columns);
     }
 
     public EntityRef getTargetEntity() {
@@ -86,4 +88,20 @@ public class MinimapHUDElement extends CoreHudWidget {
     public void setWorldProvider(WorldProvider worldProvider) {
         minimapGrid.setWorldProvider(worldProvider);
     }
+
+    public void setMazeInfo(MazeInfo mazeInfo) {
+        minimapGrid.setMazeInfo(mazeInfo);
+    }
+
+    public void setEditedColumns(EditedMazeColumnsComponent editedColumns) {
+        minimapGrid.setEditedColumns(editedColumns);
+    }
+
+    public void updateLoadedChunk(int chunkX, int chunkZ) {
+        minimapGrid.updateLoadedChunk(chunkX, chunkZ);
+    }
+
+    public void updateExploredRoom(int roomX, int roomZ) {
+        minimapGrid.updateExploredRoom(roomX, roomZ);
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap.rendering.nui.layers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.terasology.mazes.MazeGenerator;
+import org.terasology.mazes.MazeInfo;
+import org.terasology.mazes.minimap.BlockColumnSet;
+import org.terasology.mazes.minimap.ExploredMazeComponent;
+import org.terasology.rendering.nui.Color;
+
+/**
+ * Samples the minimap from the maze layout instead of the world, so that the maze shows up completely and cheaply
+ * whether or not its chunks are loaded.
+ * <p>
+ * The layout only knows what the maze carved, so it is used for the underground part of the maze, where everything
+ * else is rock. Block columns the player has changed there, and everything outside the maze, are still sampled from
+ * the world.
+ * <p>
+ * Rooms the player has not explored yet are shown as rock without looking at them at all.
+ * <p>
+ * Zoomed out views read the maze from a {@link MinimapPyramid} of the blocks of the horizontal slice they show, so
+ * that a cell of 2, 4 or 8 blocks shows what most of its blocks are rather than whichever block is at its corner.
+ * The pyramid of a height is built the first time it is viewed zoomed out. Unexplored rooms count as rock there as
+ * well, so the pyramids are built again whenever more rooms have been explored. Edited columns are still sampled
+ * from the world, which is downsampled by whoever samples it.
+ */
+class MinimapLayoutSampler implements MinimapCellBuffer.Sampler {
+    // Heights kept around; moving between a few heights should not rebuild them every time
+    private static final int MAX_PYRAMIDS = 16;
+
+    private final MazeInfo mazeInfo;
+    private final MazeGenerator mazeGenerator;
+    private final MinimapCellBuffer.Sampler worldSampler;
+
+    // The block columns the player has changed
+    private final BlockColumnSet editedColumns = new BlockColumnSet();
+    // Null until the player has explored anything
+    private ExploredMazeComponent explored;
+
+    // Pyramids of the explored open blocks by height, least recently used first
+    private final Map<Integer, MinimapPyramid> pyramids = new LinkedHashMap<Integer, MinimapPyramid>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, MinimapPyramid> eldest) {
+            return size() > MAX_PYRAMIDS;
+        }
+    };
+
+    MinimapLayoutSampler(MazeInfo mazeInfo, MinimapCellBuffer.Sampler worldSampler) {
+        this.mazeInfo = mazeInfo;
+        this.mazeGenerator = new MazeGenerator(mazeInfo);
+        this.worldSampler = worldSampler;
+    }
+
+    @Override
+    public Color sample(int x, int y, int z) {
+        if (isCoveredByLayout(x, y, z)) {
+            if (!isExplored(x, y, z)) {
+                return Color.BLACK;
+            }
+            if (!isEdited(x, z)) {
+                return mazeGenerator.containsWorldPosition(x, y, z) ? Color.GREY : Color.BLACK;
+            }
+        }
+        return worldSampler.sample(x, y, z);
+    }
+
+    @Override
+    public Color sample(int x, int y, int z, float blocksPerCell) {
+        int level = MinimapPyramid.getLevel(blocksPerCell);
+        if (level == 0 || !isCoveredByLayout(x, y, z) || isEdited(x, z)) {
+            return sample(x, y, z);
+        }
+        return getPyramid(y).isOpen(x, z, level) ? Color.GREY : Color.BLACK;
+    }
+
+    void setExplored(ExploredMazeComponent explored) {
+        this.explored = explored;
+        pyramids.clear();
+    }
+
+    /**
+     * Makes the given block column come from the world from now on.
+     */
+    void markEdited(int x, int z) {
+        editedColumns.add(x, z);
+    }
+
+    /**
+     * @return whether the given position is drawn from the layout of the given maze unless its column was edited
+     */
+    static boolean isCoveredByLayout(MazeInfo mazeInfo, int x, int y, int z) {
+        // Above the entrance the shaft is open air, which the layout knows nothing about
+        return y < mazeInfo.maxTileY() && mazeInfo.isInsideBoundaries(x, y, z);
+    }
+
+    private boolean isCoveredByLayout(int x, int y, int z) {
+        return isCoveredByLayout(mazeInfo, x, y, z);
+    }
+
+    private boolean isExplored(int x, int y, int z) {
+        return explored != null
+                && explored.isExplored(mazeInfo.getLevel(y), mazeInfo.getRoomX(x), mazeInfo.getRoomZ(z));
+    }
+
+    private MinimapPyramid getPyramid(int y) {
+        MinimapPyramid pyramid = pyramids.get(y);
+        if (pyramid == null) {
+            pyramid = new MinimapPyramid(mazeInfo.minTileX(), mazeInfo.minTileZ(),
+                    mazeInfo.maxTileX() - mazeInfo.minTileX(), mazeInfo.maxTileZ() - mazeInfo.minTileZ(),
+                    (x, z) -> mazeGenerator.containsWorldPosition(x, y, z) && isExplored(x, y, z));
+            pyramids.put(y, pyramid);
+        }
+        return pyramid;
+    }
+
+    private boolean isEdited(int x, int z) {
+        return !editedColumns.isEmpty() && editedColumns.contains(x, z);
+    }
+}
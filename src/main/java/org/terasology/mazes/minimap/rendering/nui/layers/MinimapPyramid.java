@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap.rendering.nui.layers;
+
+/**
+ * Downsampled copies of a grid of open/solid cells, such as the rooms of a maze level, for zoomed out minimaps: level
+ * k holds, for every texel of 2^k by 2^k cells, how many of its cells are open. A texel is shown as open if most of
+ * its cells are, so corridors thinner than a minimap cell neither flicker nor vanish as the view moves.
+ */
+class MinimapPyramid {
+
+    interface OpenTest {
+        boolean isOpen(int x, int z);
+    }
+
+    private final int minX;
+    private final int minZ;
+    private final int width;
+    private final int height;
+    // counts[k][tx + tz * widths[k]] is the number of open cells in texel (tx, tz) of level k
+    private final int[][] counts;
+    private final int[] widths;
+
+    /**
+     * Tests every cell once and builds every level up to the one of a single texel.
+     */
+    MinimapPyramid(int minX, int minZ, int width, int height, OpenTest test) {
+        this.minX = minX;
+        this.minZ = minZ;
+        this.width = width;
+        this.height = height;
+
+        int levels = 1;
+        while ((1 << (levels - 1)) < Math.max(width, height)) {
+            levels++;
+        }
+        counts = new int[levels][];
+        widths = new int[levels];
+
+        widths[0] = width;
+        counts[0] = new int[width * height];
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                counts[0][x + z * width] = test.isOpen(minX + x, minZ + z) ? 1 : 0;
+            }
+        }
+        int levelHeight = height;
+        for (int level = 1; level < levels; level++) {
+            int previousWidth = widths[level - 1];
+            int previousHeight = levelHeight;
+            widths[level] = (previousWidth + 1) / 2;
+            levelHeight = (previousHeight + 1) / 2;
+            counts[level] = new int[widths[level] * levelHeight];
+            for (int z = 0; z < previousHeight; z++) {
+                for (int x = 0; x < previousWidth; x++) {
+                    counts[level][x / 2 + z / 2 * widths[level]] += counts[level - 1][x + z * previousWidth];
+                }
+            }
+        }
+    }
+
+    int getLevelCount() {
+        return counts.length;
+    }
+
+    /**
+     * @return whether most cells of the texel of the given level holding the given cell are open
+     */
+    boolean isOpen(int x, int z, int level) {
+        level = Math.min(level, counts.length - 1);
+        int tx = (x - minX) >> level;
+        int tz = (z - minZ) >> level;
+        // Texels along the far edges may be cut short
+        int texelWidth = Math.min(1 << level, width - (tx << level));
+        int texelHeight = Math.min(1 << level, height - (tz << level));
+        return 2 * counts[level][tx + tz * widths[level]] >= texelWidth * texelHeight;
+    }
+
+    /**
+     * @return the pyramid level whose texels best match the given number of pyramid cells per minimap cell, rounded
+     * on a log scale: level k is used from 2^(k - 1/2) up to 2^(k + 1/2) cells per minimap cell
+     */
+    static int getLevel(float cellsPerCell) {
+        if (cellsPerCell <= 1) {
+            return 0;
+        }
+        return Math.round((float) (Math.log(cellsPerCell) / Math.log(2)));
+    }
+}
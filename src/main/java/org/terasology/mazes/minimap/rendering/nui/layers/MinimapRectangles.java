@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.mazes.minimap.rendering.nui.layers;
+
+import java.util.Arrays;
+
+import org.terasology.math.geom.Rect2i;
+import org.terasology.rendering.nui.Canvas;
+import org.terasology.rendering.nui.Color;
+
+/**
+ * The cells of a {@link MinimapCellBuffer}, merged greedily into as few filled rectangles as possible: each
+ * rectangle grows as far right as the colour allows, then as far down as whole rows of that width match.
+ * <p>
+ * Corridors and rock come out as a few dozen rectangles instead of one per cell. Rectangles are kept per top left
+ * cell and reused as long as their size stays the same, so rebuilding a mostly unchanged map allocates next to
+ * nothing. Once built, the rectangles can be drawn from another thread than the one that built them, as long as they
+ * are not rebuilt meanwhile.
+ */
+class MinimapRectangles {
+    private final int cellWidth;
+    private final int cellHeight;
+    private final Color unknownColor;
+
+    // The top left cell and the colour of every rectangle
+    private int[] origins = new int[0];
+    private Color[] colors = new Color[0];
+    private int count;
+    // The rectangle starting at each cell, from this or an earlier rebuild
+    private Rect2i[] rectsByCell = new Rect2i[0];
+    private boolean[] covered = new boolean[0];
+
+    /**
+     * @param unknownColor the colour of cells that could not be sampled
+     */
+    MinimapRectangles(int cellWidth, int cellHeight, Color unknownColor) {
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.unknownColor = unknownColor;
+    }
+
+    void draw(Canvas canvas) {
+        for (int i = 0; i < count; i++) {
+            canvas.drawFilledRectangle(rectsByCell[origins[i]], colors[i]);
+        }
+    }
+
+    void rebuild(MinimapCellBuffer cells) {
+        int columns = cells.getColumns();
+        int rows = cells.getRows();
+        if (covered.length != columns * rows) {
+            covered = new boolean[columns * rows];
+            rectsByCell = new Rect2i[columns * rows];
+            origins = new int[columns * rows];
+            colors = new Color[columns * rows];
+        } else {
+            Arrays.fill(covered, false);
+        }
+        count = 0;
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (covered[column + row * columns]) {
+                    continue;
+                }
+                Color color = getColor(cells, column, row);
+                int endColumn = column + 1;
+                while (endColumn < columns && !covered[endColumn + row * columns]
+                        && getColor(cells, endColumn, row) == color) {
+                    endColumn++;
+                }
+                int endRow = row + 1;
+                while (endRow < rows && matches(cells, column, endColumn, endRow, color)) {
+                    endRow++;
+                }
+                for (int coveredRow = row; coveredRow < endRow; coveredRow++) {
+                    Arrays.fill(covered, column + coveredRow * columns, endColumn + coveredRow * columns, true);
+                }
+                int origin = column + row * columns;
+                int width = (endColumn - column) * cellWidth;
+                int height = (endRow - row) * cellHeight;
+                Rect2i rect = rectsByCell[origin];
+                if (rect == null || rect.width() != width || rect.height() != height) {
+                    rectsByCell[origin] =
+                            Rect2i.createFromMinAndSize(column * cellWidth, row * cellHeight, width, height);
+                }
+                origins[count] = origin;
+                colors[count] = color;
+                count++;
+            }
+        }
+    }
+
+    private boolean matches(MinimapCellBuffer cells, int column, int endColumn, int row, Color color) {
+        int columns = cells.getColumns();
+        for (int i = column; i < endColumn; i++) {
+            if (covered[i + row * columns] || getColor(cells, i, row) != color) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Color getColor(MinimapCellBuffer cells, int column, int row) {
+        Color color = cells.getColor(column, row);
+        return color != null ? color : unknownColor;
+    }
+}